@@ -0,0 +1,185 @@
+package autocomplete;
+
+import java.util.*;
+import java.util.function.ToIntFunction;
+
+/**
+ * Weighted prefix index that returns the best-ranked prefix matches directly. Terms are stored in a sorted array, so
+ * the matches for a prefix form a contiguous range, and a segment tree over the array answers "which term in this
+ * range has the lowest weight" in logarithmic time. The top k matches are found by repeatedly splitting the range
+ * around its best term, so a query costs O(log n + k log k) however many terms match the prefix.
+ *
+ * @see Autocomplete
+ * @see TreeSetAutocomplete
+ */
+public class WeightedAutocomplete {
+    /**
+     * The weight for a term whose weight is unknown, which ranks it after every term with a known weight. Lower
+     * weights rank first, so this is the greatest weight rather than the least.
+     */
+    public static final int UNWEIGHTED = Integer.MAX_VALUE;
+    /**
+     * The terms in sorted order.
+     */
+    private final CharSequence[] terms;
+    /**
+     * The weight of each term, indexed like {@code terms}.
+     */
+    private final int[] weights;
+    /**
+     * Segment tree of the index of the best term in each range. Leaves start at {@code terms.length}.
+     */
+    private final int[] tree;
+
+    /**
+     * Constructs an instance containing the given terms. Lower weights rank first, and ties are broken by term order.
+     *
+     * @param terms   the autocompletion terms. Duplicates are ignored.
+     * @param weights the function returning the weight of each term.
+     */
+    public WeightedAutocomplete(Collection<? extends CharSequence> terms, ToIntFunction<CharSequence> weights) {
+        NavigableSet<CharSequence> sorted = new TreeSet<>(CharSequence::compare);
+        sorted.addAll(terms);
+        this.terms = sorted.toArray(new CharSequence[0]);
+        int n = this.terms.length;
+        this.weights = new int[n];
+        for (int i = 0; i < n; i += 1) {
+            this.weights[i] = weights.applyAsInt(this.terms[i]);
+        }
+        this.tree = new int[2 * n];
+        for (int i = 0; i < n; i += 1) {
+            tree[n + i] = i;
+        }
+        for (int i = n - 1; i > 0; i -= 1) {
+            tree[i] = better(tree[2 * i], tree[2 * i + 1]);
+        }
+    }
+
+    /**
+     * Returns all terms that match the given prefix in term order.
+     *
+     * @param prefix search query.
+     * @return a list of all terms that match the prefix.
+     */
+    public List<CharSequence> allMatches(CharSequence prefix) {
+        if (prefix == null || prefix.length() == 0) {
+            return new ArrayList<>();
+        }
+        int start = start(prefix);
+        int end = end(prefix, start);
+        return new ArrayList<>(Arrays.asList(terms).subList(start, end));
+    }
+
+    /**
+     * Returns up to k terms that match the given prefix, ordered by increasing weight and then by term order. The
+     * result is the same as sorting {@link #allMatches(CharSequence)} by weight and keeping the first k terms.
+     *
+     * @param prefix search query.
+     * @param k      the maximum number of terms to return.
+     * @return a list of up to k best-ranked terms that match the prefix.
+     */
+    public List<CharSequence> topMatches(CharSequence prefix, int k) {
+        List<CharSequence> result = new ArrayList<>();
+        if (prefix == null || prefix.length() == 0 || k <= 0) {
+            return result;
+        }
+        int start = start(prefix);
+        int end = end(prefix, start);
+        if (start == end) {
+            return result;
+        }
+        // Each queued range [start, end) is keyed by its best term, which is always the next result within it.
+        PriorityQueue<int[]> ranges = new PriorityQueue<>((a, b) -> compare(a[2], b[2]));
+        ranges.add(new int[]{start, end, best(start, end)});
+        while (!ranges.isEmpty() && result.size() < k) {
+            int[] range = ranges.remove();
+            int index = range[2];
+            result.add(terms[index]);
+            if (range[0] < index) {
+                ranges.add(new int[]{range[0], index, best(range[0], index)});
+            }
+            if (index + 1 < range[1]) {
+                ranges.add(new int[]{index + 1, range[1], best(index + 1, range[1])});
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of terms in this index.
+     *
+     * @return the number of terms in this index.
+     */
+    public int size() {
+        return terms.length;
+    }
+
+    /**
+     * Returns the index of the first term that is not less than the prefix.
+     */
+    private int start(CharSequence prefix) {
+        int low = 0;
+        int high = terms.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (CharSequence.compare(terms[mid], prefix) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the index after the last term matching the prefix, given the index of the first candidate.
+     */
+    private int end(CharSequence prefix, int start) {
+        int low = start;
+        int high = terms.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (Autocomplete.isPrefixOf(prefix, terms[mid])) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the index of the best term in the range [start, end), which must not be empty.
+     */
+    private int best(int start, int end) {
+        int result = start;
+        for (int l = start + terms.length, r = end + terms.length; l < r; l >>= 1, r >>= 1) {
+            if ((l & 1) == 1) {
+                result = better(result, tree[l]);
+                l += 1;
+            }
+            if ((r & 1) == 1) {
+                r -= 1;
+                result = better(result, tree[r]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns whichever of the two term indices ranks first.
+     */
+    private int better(int i, int j) {
+        return compare(i, j) <= 0 ? i : j;
+    }
+
+    /**
+     * Compares two term indices by weight and then by term order.
+     */
+    private int compare(int i, int j) {
+        if (weights[i] != weights[j]) {
+            return Integer.compare(weights[i], weights[j]);
+        }
+        return Integer.compare(i, j);
+    }
+}
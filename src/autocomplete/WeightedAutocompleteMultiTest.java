@@ -0,0 +1,98 @@
+package autocomplete;
+
+import java.util.*;
+import java.util.function.ToIntFunction;
+
+/**
+ * Compare {@link WeightedAutocomplete} top matches against {@link TreeSetAutocomplete} matches sorted by weight and
+ * truncated to check that they compute the same values. Terms are drawn from a small alphabet so that many share
+ * prefixes, weights are drawn from a small range so that there are many ties, and some terms have no weight at all.
+ *
+ * @see WeightedAutocomplete
+ * @see TreeSetAutocomplete
+ */
+class WeightedAutocompleteMultiTest {
+    /**
+     * Seed for the random number generator, so that failures can be reproduced.
+     */
+    private static final long SEED = 373;
+    /**
+     * Number of random term sets to test.
+     */
+    private static final int TRIALS = 100;
+    /**
+     * Number of random prefixes to query per term set.
+     */
+    private static final int QUERIES = 100;
+    /**
+     * The characters that terms and prefixes are made of.
+     */
+    private static final String ALPHABET = "abc ";
+
+    /**
+     * Returns a random string of up to the given length over the alphabet, starting with a letter.
+     */
+    private static String random(Random random, int maxLength) {
+        StringBuilder result = new StringBuilder();
+        result.append(ALPHABET.charAt(random.nextInt(ALPHABET.length() - 1)));
+        int length = random.nextInt(maxLength);
+        for (int i = 0; i < length; i += 1) {
+            result.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+        }
+        return result.toString();
+    }
+
+    public static void main(String[] args) {
+        Random random = new Random(SEED);
+        int failures = 0;
+        for (int trial = 0; trial < TRIALS; trial += 1) {
+            List<String> terms = new ArrayList<>();
+            Map<CharSequence, Integer> weights = new HashMap<>();
+            int count = random.nextInt(500);
+            for (int i = 0; i < count; i += 1) {
+                String term = random(random, 8);
+                terms.add(term);
+                // Leave a fifth of the terms without a weight.
+                if (random.nextInt(5) != 0) {
+                    weights.put(term, random.nextInt(20));
+                }
+            }
+            ToIntFunction<CharSequence> weight = term -> weights.getOrDefault(term, WeightedAutocomplete.UNWEIGHTED);
+
+            // Reference implementation.
+            Autocomplete reference = new TreeSetAutocomplete();
+            reference.addAll(terms);
+
+            // Testing implementation.
+            WeightedAutocomplete autocomplete = new WeightedAutocomplete(terms, weight);
+
+            for (int query = 0; query < QUERIES; query += 1) {
+                String prefix = random(random, 3);
+                int k = random.nextInt(12);
+                // Ground truth: every match sorted by weight and then by term, then truncated.
+                List<CharSequence> expected = reference.allMatches(prefix);
+                expected.sort(Comparator.comparingInt(weight).thenComparing(CharSequence::compare));
+                expected = expected.subList(0, Math.min(k, expected.size()));
+                List<CharSequence> actual = autocomplete.topMatches(prefix, k);
+                if (!actual.equals(expected)) {
+                    failures += 1;
+                    System.out.println("topMatches(\"" + prefix + "\", " + k + ") FAIL!");
+                    System.out.println("  expected " + expected);
+                    System.out.println("  actual   " + actual);
+                }
+                // Terms without a weight must rank after every term with one.
+                boolean unweighted = false;
+                for (CharSequence term : actual) {
+                    if (!weights.containsKey(term)) {
+                        unweighted = true;
+                    } else if (unweighted) {
+                        failures += 1;
+                        System.out.println("topMatches(\"" + prefix + "\", " + k + ") ranks " + term
+                                + " after a term without a weight FAIL!");
+                    }
+                }
+            }
+        }
+        System.out.println("WeightedAutocomplete " + (failures == 0 ? "PASS!" : "FAIL! (" + failures + ")"));
+    }
+}
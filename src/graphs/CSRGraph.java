@@ -0,0 +1,237 @@
+package graphs;
+
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Immutable compressed sparse row (CSR) implementation of the {@link IntGraph} interface. The outgoing edges of
+ * vertex {@code v} occupy the edge ids in the range [{@code offsets[v]}, {@code offsets[v + 1]}). The arrays are
+ * accessed through buffers, so a graph can be read directly from a memory-mapped file as well as from heap arrays.
+ *
+ * @see IntGraph
+ * @see Builder
+ */
+public final class CSRGraph implements IntGraph {
+    /**
+     * The first edge id of each vertex, followed by the total number of edges.
+     */
+    private final IntBuffer offsets;
+    /**
+     * The destination vertex of each edge.
+     */
+    private final IntBuffer targets;
+    /**
+     * The weight of each edge.
+     */
+    private final DoubleBuffer weights;
+
+    /**
+     * Constructs a graph directly from its CSR arrays. The arrays are not copied.
+     *
+     * @param offsets the first edge id of each vertex, followed by the total number of edges.
+     * @param targets the destination vertex of each edge.
+     * @param weights the weight of each edge.
+     * @throws IllegalArgumentException if the arrays do not describe a valid graph.
+     */
+    public CSRGraph(int[] offsets, int[] targets, double[] weights) {
+        this(IntBuffer.wrap(offsets), IntBuffer.wrap(targets), DoubleBuffer.wrap(weights));
+    }
+
+    /**
+     * Constructs a graph that reads its CSR arrays through the given buffers, such as views over a memory-mapped
+     * file. The buffers are not copied, and each array is the contents of its buffer from index 0 to its limit.
+     *
+     * @param offsets the first edge id of each vertex, followed by the total number of edges.
+     * @param targets the destination vertex of each edge.
+     * @param weights the weight of each edge.
+     * @throws IllegalArgumentException if the buffers do not describe a valid graph.
+     */
+    public CSRGraph(IntBuffer offsets, IntBuffer targets, DoubleBuffer weights) {
+        if (offsets.limit() == 0 || offsets.get(0) != 0 || offsets.get(offsets.limit() - 1) != targets.limit()
+                || targets.limit() != weights.limit()) {
+            throw new IllegalArgumentException("Invalid CSR arrays");
+        }
+        this.offsets = offsets;
+        this.targets = targets;
+        this.weights = weights;
+    }
+
+    @Override
+    public int size() {
+        return offsets.limit() - 1;
+    }
+
+    /**
+     * Returns the number of edges in this graph.
+     *
+     * @return the number of edges in this graph.
+     */
+    public int edgeCount() {
+        return targets.limit();
+    }
+
+    @Override
+    public int firstEdge(int vertex) {
+        return offsets.get(vertex);
+    }
+
+    @Override
+    public int endEdge(int vertex) {
+        return offsets.get(vertex + 1);
+    }
+
+    @Override
+    public int target(int edge) {
+        return targets.get(edge);
+    }
+
+    @Override
+    public double weight(int edge) {
+        return weights.get(edge);
+    }
+
+    /**
+     * Returns a new graph with every edge of the given graph reversed, so that the outgoing edges of each vertex in
+     * the result are the incoming edges of that vertex in the given graph.
+     *
+     * @param graph the input graph.
+     * @return a new graph with every edge reversed.
+     */
+    public static CSRGraph reverse(IntGraph graph) {
+        Builder builder = new Builder().ensureSize(graph.size());
+        for (int v = 0; v < graph.size(); v += 1) {
+            for (int e = graph.firstEdge(v); e < graph.endEdge(v); e += 1) {
+                builder.addEdge(graph.target(e), v, graph.weight(e));
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Accumulates edges in any order and then builds an immutable {@link CSRGraph}.
+     */
+    public static class Builder {
+        private int size;
+        private int edgeCount;
+        private int[] from;
+        private int[] to;
+        private double[] weights;
+
+        /**
+         * Constructs an empty builder.
+         */
+        public Builder() {
+            this.size = 0;
+            this.edgeCount = 0;
+            this.from = new int[16];
+            this.to = new int[16];
+            this.weights = new double[16];
+        }
+
+        /**
+         * Ensures that the built graph has at least the given number of vertices, even if some have no edges.
+         *
+         * @param size the minimum number of vertices.
+         * @return this builder.
+         */
+        public Builder ensureSize(int size) {
+            this.size = Math.max(this.size, size);
+            return this;
+        }
+
+        /**
+         * Adds a directed edge.
+         *
+         * @param from   the originating vertex.
+         * @param to     the destination vertex.
+         * @param weight the weight of the edge.
+         * @return this builder.
+         */
+        public Builder addEdge(int from, int to, double weight) {
+            if (from < 0 || to < 0) {
+                throw new IllegalArgumentException("Negative vertex id");
+            }
+            if (edgeCount == this.from.length) {
+                int capacity = edgeCount * 2;
+                this.from = Arrays.copyOf(this.from, capacity);
+                this.to = Arrays.copyOf(this.to, capacity);
+                this.weights = Arrays.copyOf(this.weights, capacity);
+            }
+            this.from[edgeCount] = from;
+            this.to[edgeCount] = to;
+            this.weights[edgeCount] = weight;
+            edgeCount += 1;
+            size = Math.max(size, Math.max(from, to) + 1);
+            return this;
+        }
+
+        /**
+         * Returns a new graph containing all the added edges. Each vertex's edges are ordered by destination, and
+         * duplicate edges with the same destination and weight are stored only once.
+         *
+         * @return a new graph containing all the added edges.
+         */
+        public CSRGraph build() {
+            // Counting sort the edges by their originating vertex.
+            int[] offsets = new int[size + 1];
+            for (int e = 0; e < edgeCount; e += 1) {
+                offsets[from[e] + 1] += 1;
+            }
+            for (int v = 0; v < size; v += 1) {
+                offsets[v + 1] += offsets[v];
+            }
+            int[] next = Arrays.copyOf(offsets, size);
+            int[] sortedTargets = new int[edgeCount];
+            double[] sortedWeights = new double[edgeCount];
+            for (int e = 0; e < edgeCount; e += 1) {
+                int i = next[from[e]];
+                sortedTargets[i] = to[e];
+                sortedWeights[i] = weights[e];
+                next[from[e]] += 1;
+            }
+            // Sort each row by destination and drop duplicate edges, compacting the arrays in place.
+            int count = 0;
+            for (int v = 0; v < size; v += 1) {
+                int start = offsets[v];
+                int end = offsets[v + 1];
+                insertionSort(sortedTargets, sortedWeights, start, end);
+                offsets[v] = count;
+                for (int i = start; i < end; i += 1) {
+                    if (i == start || sortedTargets[i] != sortedTargets[i - 1]
+                            || Double.compare(sortedWeights[i], sortedWeights[i - 1]) != 0) {
+                        sortedTargets[count] = sortedTargets[i];
+                        sortedWeights[count] = sortedWeights[i];
+                        count += 1;
+                    }
+                }
+            }
+            offsets[size] = count;
+            return new CSRGraph(
+                    offsets,
+                    Arrays.copyOf(sortedTargets, count),
+                    Arrays.copyOf(sortedWeights, count)
+            );
+        }
+
+        /**
+         * Sorts the given range of edges by destination and then by weight. Rows are short, so insertion sort is
+         * faster than a general-purpose sort.
+         */
+        private static void insertionSort(int[] targets, double[] weights, int start, int end) {
+            for (int i = start + 1; i < end; i += 1) {
+                int target = targets[i];
+                double weight = weights[i];
+                int j = i - 1;
+                while (j >= start && (targets[j] > target
+                        || (targets[j] == target && Double.compare(weights[j], weight) > 0))) {
+                    targets[j + 1] = targets[j];
+                    weights[j + 1] = weights[j];
+                    j -= 1;
+                }
+                targets[j + 1] = target;
+                weights[j + 1] = weight;
+            }
+        }
+    }
+}
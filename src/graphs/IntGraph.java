@@ -0,0 +1,51 @@
+package graphs;
+
+/**
+ * Directed, edge-weighted graph over dense {@code int} vertex ids in the range [0, {@link #size()}). Unlike
+ * {@link Graph}, outgoing edges are addressed by {@code int} edge ids in a contiguous range so that solvers can
+ * iterate over them without allocating {@link Edge} objects.
+ *
+ * @see Graph
+ * @see CSRGraph
+ * @see IntAStarGraph
+ */
+public interface IntGraph {
+    /**
+     * Returns the number of vertices in this graph.
+     *
+     * @return the number of vertices in this graph.
+     */
+    int size();
+
+    /**
+     * Returns the id of the first outgoing edge from the given vertex.
+     *
+     * @param vertex the vertex of interest.
+     * @return the id of the first outgoing edge from the given vertex.
+     */
+    int firstEdge(int vertex);
+
+    /**
+     * Returns one past the id of the last outgoing edge from the given vertex.
+     *
+     * @param vertex the vertex of interest.
+     * @return one past the id of the last outgoing edge from the given vertex.
+     */
+    int endEdge(int vertex);
+
+    /**
+     * Returns the destination vertex of the given edge.
+     *
+     * @param edge the edge of interest.
+     * @return the destination vertex of the given edge.
+     */
+    int target(int edge);
+
+    /**
+     * Returns the weight of the given edge.
+     *
+     * @param edge the edge of interest.
+     * @return the weight of the given edge.
+     */
+    double weight(int edge);
+}
@@ -18,15 +18,30 @@ public class AStarSolver<V> {
     private final Map<V, Double> distTo;
     private final V start;
     private final V goal;
+    private SearchStatus status;
 
     /**
-     * Constructs a new instance by executing A* search on the graph from the start to the goal.
+     * Constructs a new instance by executing A* search on the graph from the start to the goal, stopping as soon as
+     * the goal is settled.
      *
      * @param graph the input graph.
      * @param start the start vertex.
      * @param goal  the goal vertex.
      */
     public AStarSolver(AStarGraph<V> graph, V start, V goal) {
+        this(graph, start, goal, SearchOptions.STOP_AT_GOAL);
+    }
+
+    /**
+     * Constructs a new instance by executing A* search on the graph from the start to the goal until the options stop
+     * the search. The solution is only guaranteed to be a shortest path if {@link #status()} is complete.
+     *
+     * @param graph   the input graph.
+     * @param start   the start vertex.
+     * @param goal    the goal vertex.
+     * @param options the options that bound the search.
+     */
+    public AStarSolver(AStarGraph<V> graph, V start, V goal, SearchOptions options) {
         this.edgeTo = new HashMap<>();
         this.distTo = new HashMap<>();
         this.start = start;
@@ -35,8 +50,24 @@ public class AStarSolver<V> {
         pq.add(start, 0.0);
         edgeTo.put(start, null);
         distTo.put(start, 0.0);
+        status = SearchStatus.EXHAUSTED;
+        long startNanos = System.nanoTime();
+        int settled = 0;
         while (!pq.isEmpty()) {
             V from = pq.removeMin();
+            SearchStatus stop = options.check(
+                    settled, distTo.get(from) + graph.estimatedDistance(from, goal), startNanos
+            );
+            if (stop != null) {
+                status = stop;
+                return;
+            }
+            settled += 1;
+            if (options.stopAtGoal() && from.equals(goal)) {
+                // Vertices are re-added whenever their distance improves, so an admissible heuristic suffices.
+                status = SearchStatus.GOAL_SETTLED;
+                return;
+            }
             for (Edge<V> e : graph.neighbors(from)) {
                 V to = e.to;
                 double oldDist = distTo.getOrDefault(to, Double.POSITIVE_INFINITY);
@@ -71,4 +102,13 @@ public class AStarSolver<V> {
         Collections.reverse(path);
         return path;
     }
+
+    /**
+     * Returns the reason the search stopped.
+     *
+     * @return the reason the search stopped.
+     */
+    public SearchStatus status() {
+        return status;
+    }
 }
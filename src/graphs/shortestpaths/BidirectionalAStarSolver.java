@@ -0,0 +1,233 @@
+package graphs.shortestpaths;
+
+import graphs.CSRGraph;
+import graphs.IntAStarGraph;
+import graphs.IntGraph;
+import minpq.IntHeapMinPQ;
+
+import java.util.Arrays;
+
+/**
+ * Bidirectional A* search implementation for single-pair shortest paths in an {@link IntAStarGraph}. A forward
+ * search from the start over the graph and a reverse search from the goal over the reverse graph alternate until they
+ * meet. Both searches use the average potential p(v) = (h(v, goal) - h(start, v)) / 2, which is consistent whenever
+ * the graph's heuristic is, so the search can stop as soon as the sum of the two minimum priorities reaches the best
+ * path length found. With a zero heuristic this is bidirectional Dijkstra's algorithm.
+ *
+ * @see IntAStarGraph
+ * @see IntAStarSolver
+ * @see CSRGraph#reverse(IntGraph)
+ */
+public class BidirectionalAStarSolver {
+    /**
+     * The previous vertex on the shortest path from the start to each vertex, or -1 if there is none.
+     */
+    private final int[] forwardEdgeTo;
+    private final double[] forwardDistTo;
+    /**
+     * The next vertex on the shortest path from each vertex to the goal, or -1 if there is none.
+     */
+    private final int[] backwardEdgeTo;
+    private final double[] backwardDistTo;
+    private final IntAStarGraph graph;
+    private final int start;
+    private final int goal;
+    /**
+     * The vertex where the forward and reverse searches meet on the shortest path, or -1 if the goal is unreachable.
+     */
+    private int meet;
+    private double best;
+    private int settled;
+    private SearchStatus status;
+
+    /**
+     * Constructs a new instance by executing bidirectional A* search on the graph from the start to the goal. The
+     * reverse graph is computed from the graph, so callers that run many searches should precompute it once and use
+     * {@link #BidirectionalAStarSolver(IntAStarGraph, IntGraph, int, int)} instead.
+     *
+     * @param graph the input graph.
+     * @param start the start vertex.
+     * @param goal  the goal vertex.
+     */
+    public BidirectionalAStarSolver(IntAStarGraph graph, int start, int goal) {
+        this(graph, CSRGraph.reverse(graph), start, goal);
+    }
+
+    /**
+     * Constructs a new instance by executing bidirectional A* search on the graph from the start to the goal.
+     *
+     * @param graph   the input graph.
+     * @param reverse the input graph with every edge reversed.
+     * @param start   the start vertex.
+     * @param goal    the goal vertex.
+     * @throws IllegalArgumentException if the graphs have different sizes.
+     */
+    public BidirectionalAStarSolver(IntAStarGraph graph, IntGraph reverse, int start, int goal) {
+        this(graph, reverse, start, goal, SearchOptions.STOP_AT_GOAL);
+    }
+
+    /**
+     * Constructs a new instance by executing bidirectional A* search on the graph from the start to the goal until the
+     * options stop the search. The search always stops once the shortest path is known. The solution is only
+     * guaranteed to be a shortest path if {@link #status()} is complete.
+     *
+     * @param graph   the input graph.
+     * @param reverse the input graph with every edge reversed.
+     * @param start   the start vertex.
+     * @param goal    the goal vertex.
+     * @param options the options that bound the search.
+     * @throws IllegalArgumentException if the graphs have different sizes.
+     */
+    public BidirectionalAStarSolver(IntAStarGraph graph, IntGraph reverse, int start, int goal,
+                                    SearchOptions options) {
+        if (graph.size() != reverse.size()) {
+            throw new IllegalArgumentException(
+                    "Reverse graph has " + reverse.size() + " vertices, not " + graph.size()
+            );
+        }
+        this.forwardEdgeTo = new int[graph.size()];
+        this.forwardDistTo = new double[graph.size()];
+        this.backwardEdgeTo = new int[graph.size()];
+        this.backwardDistTo = new double[graph.size()];
+        this.graph = graph;
+        this.start = start;
+        this.goal = goal;
+        Arrays.fill(forwardEdgeTo, -1);
+        Arrays.fill(forwardDistTo, Double.POSITIVE_INFINITY);
+        Arrays.fill(backwardEdgeTo, -1);
+        Arrays.fill(backwardDistTo, Double.POSITIVE_INFINITY);
+        IntHeapMinPQ forward = new IntHeapMinPQ(graph.size());
+        IntHeapMinPQ backward = new IntHeapMinPQ(graph.size());
+        forwardDistTo[start] = 0.0;
+        backwardDistTo[goal] = 0.0;
+        forward.add(start, potential(start));
+        backward.add(goal, -potential(goal));
+        meet = start == goal ? start : -1;
+        best = start == goal ? 0.0 : Double.POSITIVE_INFINITY;
+        settled = 0;
+        status = SearchStatus.EXHAUSTED;
+        long startNanos = System.nanoTime();
+        // Priorities in the reverse search use the negated potential, so their sum bounds any undiscovered path.
+        while (!forward.isEmpty() && !backward.isEmpty()) {
+            double bound = forward.peekMinPriority() + backward.peekMinPriority();
+            if (bound >= best) {
+                status = SearchStatus.GOAL_SETTLED;
+                return;
+            }
+            SearchStatus stop = options.check(settled, bound, startNanos);
+            if (stop != null) {
+                status = stop;
+                return;
+            }
+            if (forward.peekMinPriority() <= backward.peekMinPriority()) {
+                int from = forward.removeMin();
+                settled += 1;
+                for (int e = graph.firstEdge(from); e < graph.endEdge(from); e += 1) {
+                    relax(forward, forwardEdgeTo, forwardDistTo, backwardDistTo, from, graph.target(e),
+                            graph.weight(e), 1.0);
+                }
+            } else {
+                int from = backward.removeMin();
+                settled += 1;
+                for (int e = reverse.firstEdge(from); e < reverse.endEdge(from); e += 1) {
+                    relax(backward, backwardEdgeTo, backwardDistTo, forwardDistTo, from, reverse.target(e),
+                            reverse.weight(e), -1.0);
+                }
+            }
+        }
+    }
+
+    /**
+     * Relaxes the edge from one vertex to another in one direction of the search, updating the best path if the edge
+     * connects the two searches.
+     *
+     * @param sign 1 for the forward search or -1 for the reverse search.
+     */
+    private void relax(IntHeapMinPQ pq, int[] edgeTo, double[] distTo, double[] otherDistTo,
+                       int from, int to, double weight, double sign) {
+        double newDist = distTo[from] + weight;
+        if (newDist < distTo[to]) {
+            edgeTo[to] = from;
+            distTo[to] = newDist;
+            double priority = newDist + sign * potential(to);
+            if (pq.contains(to)) {
+                pq.changePriority(to, priority);
+            } else {
+                pq.add(to, priority);
+            }
+            if (newDist + otherDistTo[to] < best) {
+                best = newDist + otherDistTo[to];
+                meet = to;
+            }
+        }
+    }
+
+    /**
+     * Returns the forward search potential of the vertex. The reverse search uses its negation.
+     */
+    private double potential(int vertex) {
+        return (graph.estimatedDistance(vertex, goal) - graph.estimatedDistance(start, vertex)) / 2;
+    }
+
+    /**
+     * Returns the single-pair shortest path from the stored start to the stored goal.
+     *
+     * @return an array of vertices representing the shortest path.
+     */
+    public int[] solution() {
+        if (meet == -1) {
+            return new int[]{goal};
+        }
+        int length = 1;
+        for (int curr = meet; forwardEdgeTo[curr] != -1; curr = forwardEdgeTo[curr]) {
+            length += 1;
+        }
+        for (int curr = meet; backwardEdgeTo[curr] != -1; curr = backwardEdgeTo[curr]) {
+            length += 1;
+        }
+        int[] path = new int[length];
+        int i = 0;
+        for (int curr = meet; curr != -1; curr = forwardEdgeTo[curr]) {
+            path[i] = curr;
+            i += 1;
+        }
+        // The forward half was written from the meeting vertex back to the start.
+        for (int left = 0, right = i - 1; left < right; left += 1, right -= 1) {
+            int temp = path[left];
+            path[left] = path[right];
+            path[right] = temp;
+        }
+        for (int curr = backwardEdgeTo[meet]; curr != -1; curr = backwardEdgeTo[curr]) {
+            path[i] = curr;
+            i += 1;
+        }
+        return path;
+    }
+
+    /**
+     * Returns the total weight of the shortest path from the stored start to the stored goal.
+     *
+     * @return the total weight of the shortest path, or infinity if the goal is unreachable.
+     */
+    public double distance() {
+        return best;
+    }
+
+    /**
+     * Returns the number of vertices removed from either priority queue during the search.
+     *
+     * @return the number of vertices settled during the search.
+     */
+    public int settled() {
+        return settled;
+    }
+
+    /**
+     * Returns the reason the search stopped.
+     *
+     * @return the reason the search stopped.
+     */
+    public SearchStatus status() {
+        return status;
+    }
+}
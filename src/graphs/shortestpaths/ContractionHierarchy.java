@@ -0,0 +1,824 @@
+package graphs.shortestpaths;
+
+import graphs.IntAStarGraph;
+import graphs.IntGraph;
+import minpq.IntHeapMinPQ;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Contraction hierarchy (CH) over an {@link IntGraph} for fast exact single-pair shortest paths. Preprocessing
+ * contracts vertices one at a time in order of increasing importance, adding shortcut edges between the remaining
+ * neighbors of each contracted vertex whenever no witness path avoids it. Queries then only need to search upward in
+ * the hierarchy from both ends, which explores a tiny fraction of the graph.
+ * <p>
+ * The hierarchy is stored as two CSR edge lists: the upward edges leaving each vertex, and the upward edges entering
+ * each vertex (for the backward search). Each shortcut records the contracted vertex it bypasses so that paths can be
+ * unpacked back into edges of the original graph. A checksum of the original graph is kept with the hierarchy so that
+ * a hierarchy built for a different graph is never used for queries.
+ *
+ * @see ContractionHierarchySolver
+ * @see IntGraph
+ */
+public class ContractionHierarchy {
+    /**
+     * The bytes "CHGR" identifying a serialized hierarchy.
+     */
+    private static final int MAGIC = 0x43484752;
+    /**
+     * The serialization format version. Increment whenever the layout changes.
+     */
+    private static final int VERSION = 2;
+    /**
+     * Maximum number of vertices settled by each witness search. Giving up early only adds unnecessary shortcuts.
+     */
+    private static final int WITNESS_SETTLE_LIMIT = 500;
+    /**
+     * The offset basis and prime of the 64-bit FNV-1a hash used for graph checksums.
+     */
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    /**
+     * Default number of idle search spaces kept for reuse, enough for one query per processor at a time.
+     */
+    private static final int DEFAULT_SEARCH_SPACES = Runtime.getRuntime().availableProcessors();
+
+    private final int[] rank;
+    private final int originalEdgeCount;
+    private final long checksum;
+    /**
+     * Upward edges leaving each vertex: to a higher-ranked target.
+     */
+    private final int[] upOffsets;
+    private final int[] upTargets;
+    private final double[] upWeights;
+    private final int[] upMiddles;
+    /**
+     * Upward edges entering each vertex: from a higher-ranked source.
+     */
+    private final int[] downOffsets;
+    private final int[] downSources;
+    private final double[] downWeights;
+    private final int[] downMiddles;
+    /**
+     * Idle query state, reused so that each query only touches the vertices it visits. The pool belongs to this
+     * hierarchy, so its arrays are discarded with it rather than kept alive by the threads that ran queries.
+     */
+    private final BlockingQueue<SearchSpace> searchSpaces;
+
+    private ContractionHierarchy(int[] rank, int originalEdgeCount, long checksum,
+                                 int[] upOffsets, int[] upTargets, double[] upWeights, int[] upMiddles,
+                                 int[] downOffsets, int[] downSources, double[] downWeights, int[] downMiddles,
+                                 int searchSpaces) {
+        this.rank = rank;
+        this.originalEdgeCount = originalEdgeCount;
+        this.checksum = checksum;
+        this.upOffsets = upOffsets;
+        this.upTargets = upTargets;
+        this.upWeights = upWeights;
+        this.upMiddles = upMiddles;
+        this.downOffsets = downOffsets;
+        this.downSources = downSources;
+        this.downWeights = downWeights;
+        this.downMiddles = downMiddles;
+        this.searchSpaces = new ArrayBlockingQueue<>(searchSpaces);
+    }
+
+    /**
+     * Returns a new hierarchy by contracting every vertex of the given graph.
+     *
+     * @param graph the input graph.
+     * @return a new hierarchy for the given graph.
+     */
+    public static ContractionHierarchy build(IntGraph graph) {
+        return new Contractor(graph).contractAll();
+    }
+
+    /**
+     * Returns the number of vertices in this hierarchy.
+     *
+     * @return the number of vertices in this hierarchy.
+     */
+    public int size() {
+        return rank.length;
+    }
+
+    /**
+     * Returns the number of edges in the graph this hierarchy was built from.
+     *
+     * @return the number of edges in the original graph.
+     */
+    public int originalEdgeCount() {
+        return originalEdgeCount;
+    }
+
+    /**
+     * Returns the number of shortcut edges added during preprocessing.
+     *
+     * @return the number of shortcut edges.
+     */
+    public int shortcutCount() {
+        int count = 0;
+        for (int middle : upMiddles) {
+            if (middle != -1) {
+                count += 1;
+            }
+        }
+        for (int middle : downMiddles) {
+            if (middle != -1) {
+                count += 1;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns true if and only if this hierarchy was built from a graph with the same edges as the given graph.
+     *
+     * @param graph the graph to check.
+     * @return true if the graph has the same size, edge count, and checksum as the graph this hierarchy was built from.
+     */
+    public boolean matches(IntGraph graph) {
+        return graph.size() == size()
+                && (graph.size() == 0 ? 0 : graph.endEdge(graph.size() - 1)) == originalEdgeCount
+                && checksum(graph) == checksum;
+    }
+
+    /**
+     * Returns a checksum of the CSR arrays of the given graph. For an {@link IntAStarGraph}, the checksum also covers
+     * the estimated distance between each pair of consecutive vertices, which changes when the vertices move.
+     *
+     * @param graph the graph to checksum.
+     * @return the 64-bit FNV-1a hash of the graph.
+     */
+    public static long checksum(IntGraph graph) {
+        long hash = FNV_OFFSET;
+        for (int v = 0; v < graph.size(); v += 1) {
+            hash = mix(hash, graph.endEdge(v));
+            for (int e = graph.firstEdge(v); e < graph.endEdge(v); e += 1) {
+                hash = mix(hash, graph.target(e));
+                hash = mix(hash, Double.doubleToLongBits(graph.weight(e)));
+            }
+        }
+        if (graph instanceof IntAStarGraph) {
+            IntAStarGraph located = (IntAStarGraph) graph;
+            for (int v = 1; v < graph.size(); v += 1) {
+                hash = mix(hash, Double.doubleToLongBits(located.estimatedDistance(v - 1, v)));
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Returns the hash with the bytes of the value mixed in, least significant byte first.
+     */
+    private static long mix(long hash, long value) {
+        for (int i = 0; i < Long.BYTES; i += 1) {
+            hash = (hash ^ (value & 0xff)) * FNV_PRIME;
+            value >>>= 8;
+        }
+        return hash;
+    }
+
+    /**
+     * Writes this hierarchy to the given path, replacing any existing file only once the hierarchy has been
+     * completely written.
+     *
+     * @param path the destination path.
+     * @throws IOException if an I/O error occurs.
+     */
+    public void write(Path path) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(rank.length);
+            out.writeInt(originalEdgeCount);
+            out.writeLong(checksum);
+            out.writeInt(upTargets.length);
+            out.writeInt(downSources.length);
+            writeInts(out, rank);
+            writeInts(out, upOffsets);
+            writeInts(out, upTargets);
+            writeDoubles(out, upWeights);
+            writeInts(out, upMiddles);
+            writeInts(out, downOffsets);
+            writeInts(out, downSources);
+            writeDoubles(out, downWeights);
+            writeInts(out, downMiddles);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Returns the hierarchy stored at the given path, keeping query state for one query per processor at a time.
+     *
+     * @param path the source path.
+     * @return the hierarchy stored at the given path.
+     * @throws IOException if an I/O error occurs or if the file is not a supported hierarchy.
+     */
+    public static ContractionHierarchy read(Path path) throws IOException {
+        return read(path, DEFAULT_SEARCH_SPACES);
+    }
+
+    /**
+     * Returns the hierarchy stored at the given path. Queries beyond the given number at a time still run, but
+     * allocate query state that is discarded afterwards.
+     *
+     * @param path         the source path.
+     * @param searchSpaces the maximum number of idle search spaces to keep for reuse by later queries.
+     * @return the hierarchy stored at the given path.
+     * @throws IOException if an I/O error occurs or if the file is not a supported hierarchy.
+     */
+    public static ContractionHierarchy read(Path path, int searchSpaces) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a contraction hierarchy: " + path);
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported contraction hierarchy version " + version + ": " + path);
+            }
+            int size = in.readInt();
+            int originalEdgeCount = in.readInt();
+            long checksum = in.readLong();
+            int upCount = in.readInt();
+            int downCount = in.readInt();
+            return new ContractionHierarchy(
+                    readInts(in, size),
+                    originalEdgeCount,
+                    checksum,
+                    readInts(in, size + 1),
+                    readInts(in, upCount),
+                    readDoubles(in, upCount),
+                    readInts(in, upCount),
+                    readInts(in, size + 1),
+                    readInts(in, downCount),
+                    readDoubles(in, downCount),
+                    readInts(in, downCount),
+                    searchSpaces
+            );
+        }
+    }
+
+    /**
+     * Searches upward from the start and the goal and returns the vertices of the shortest path between them, with
+     * all shortcuts unpacked.
+     *
+     * @param start    the start vertex.
+     * @param goal     the goal vertex.
+     * @param distance a one-element array that receives the shortest path distance, or infinity if unreachable.
+     * @return the shortest path from start to goal, or just the goal if it is unreachable.
+     */
+    int[] query(int start, int goal, double[] distance) {
+        SearchSpace space = searchSpaces.poll();
+        if (space == null) {
+            space = new SearchSpace(rank.length);
+        }
+        try {
+            return query(start, goal, distance, space);
+        } finally {
+            // Idle spaces are always reset, so the next query can start right away.
+            space.reset();
+            searchSpaces.offer(space);
+        }
+    }
+
+    /**
+     * Runs the query using the given reset search space.
+     */
+    private int[] query(int start, int goal, double[] distance, SearchSpace space) {
+        double best = Double.POSITIVE_INFINITY;
+        int meet = -1;
+        space.visitForward(start, 0.0, -1, -1);
+        space.visitBackward(goal, 0.0, -1, -1);
+        if (start == goal) {
+            best = 0.0;
+            meet = start;
+        }
+        IntHeapMinPQ forward = space.forwardPQ;
+        IntHeapMinPQ backward = space.backwardPQ;
+        while (true) {
+            double forwardMin = forward.isEmpty() ? Double.POSITIVE_INFINITY : forward.peekMinPriority();
+            double backwardMin = backward.isEmpty() ? Double.POSITIVE_INFINITY : backward.peekMinPriority();
+            if (Math.min(forwardMin, backwardMin) >= best) {
+                break;
+            }
+            if (forwardMin <= backwardMin) {
+                int from = forward.removeMin();
+                for (int e = upOffsets[from]; e < upOffsets[from + 1]; e += 1) {
+                    int to = upTargets[e];
+                    double newDist = space.forwardDist[from] + upWeights[e];
+                    if (newDist < space.forwardDist[to]) {
+                        space.visitForward(to, newDist, e, from);
+                        double total = newDist + space.backwardDist[to];
+                        if (total < best) {
+                            best = total;
+                            meet = to;
+                        }
+                    }
+                }
+            } else {
+                int to = backward.removeMin();
+                for (int e = downOffsets[to]; e < downOffsets[to + 1]; e += 1) {
+                    int from = downSources[e];
+                    double newDist = space.backwardDist[to] + downWeights[e];
+                    if (newDist < space.backwardDist[from]) {
+                        space.visitBackward(from, newDist, e, to);
+                        double total = newDist + space.forwardDist[from];
+                        if (total < best) {
+                            best = total;
+                            meet = from;
+                        }
+                    }
+                }
+            }
+        }
+        distance[0] = best;
+        if (meet == -1) {
+            return new int[]{goal};
+        }
+        // Unpack the forward half in reverse, then the backward half in order.
+        IntList path = new IntList();
+        IntList edges = new IntList();
+        for (int v = meet; space.forwardEdge[v] != -1; v = space.forwardSource[v]) {
+            edges.add(space.forwardEdge[v]);
+        }
+        path.add(start);
+        for (int i = edges.size - 1; i >= 0; i -= 1) {
+            int e = edges.values[i];
+            int to = upTargets[e];
+            unpack(path.last(), to, upMiddles[e], path);
+        }
+        for (int v = meet; space.backwardEdge[v] != -1; ) {
+            int e = space.backwardEdge[v];
+            int to = space.backwardTarget[v];
+            unpack(v, to, downMiddles[e], path);
+            v = to;
+        }
+        return path.toArray();
+    }
+
+    /**
+     * Appends the original vertices after {@code from} on the edge from {@code from} to {@code to}, recursively
+     * expanding the edge if it is a shortcut that bypasses {@code middle}.
+     */
+    private void unpack(int from, int to, int middle, IntList path) {
+        if (middle == -1) {
+            path.add(to);
+            return;
+        }
+        // The middle vertex was contracted before both endpoints, so both halves are upward edges of the middle.
+        int first = -1;
+        for (int e = downOffsets[middle]; e < downOffsets[middle + 1]; e += 1) {
+            if (downSources[e] == from) {
+                first = e;
+                break;
+            }
+        }
+        int second = -1;
+        for (int e = upOffsets[middle]; e < upOffsets[middle + 1]; e += 1) {
+            if (upTargets[e] == to) {
+                second = e;
+                break;
+            }
+        }
+        if (first == -1 || second == -1) {
+            throw new IllegalStateException("Corrupt shortcut " + from + " -> " + middle + " -> " + to);
+        }
+        unpack(from, middle, downMiddles[first], path);
+        unpack(middle, to, upMiddles[second], path);
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    private static void writeDoubles(DataOutputStream out, double[] values) throws IOException {
+        for (double value : values) {
+            out.writeDouble(value);
+        }
+    }
+
+    private static int[] readInts(DataInputStream in, int length) throws IOException {
+        int[] values = new int[length];
+        for (int i = 0; i < length; i += 1) {
+            values[i] = in.readInt();
+        }
+        return values;
+    }
+
+    private static double[] readDoubles(DataInputStream in, int length) throws IOException {
+        double[] values = new double[length];
+        for (int i = 0; i < length; i += 1) {
+            values[i] = in.readDouble();
+        }
+        return values;
+    }
+
+    /**
+     * Growable list of {@code int} values.
+     */
+    private static class IntList {
+        private int[] values = new int[16];
+        private int size = 0;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size] = value;
+            size += 1;
+        }
+
+        int last() {
+            return values[size - 1];
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+
+    /**
+     * Reusable state for bidirectional upward searches. Only the vertices touched by the previous query are reset.
+     */
+    private static class SearchSpace {
+        private final double[] forwardDist;
+        private final int[] forwardEdge;
+        private final int[] forwardSource;
+        private final double[] backwardDist;
+        private final int[] backwardEdge;
+        private final int[] backwardTarget;
+        private final IntHeapMinPQ forwardPQ;
+        private final IntHeapMinPQ backwardPQ;
+        private final boolean[] isTouched;
+        private final IntList touched;
+
+        SearchSpace(int size) {
+            forwardDist = new double[size];
+            forwardEdge = new int[size];
+            forwardSource = new int[size];
+            backwardDist = new double[size];
+            backwardEdge = new int[size];
+            backwardTarget = new int[size];
+            forwardPQ = new IntHeapMinPQ(size);
+            backwardPQ = new IntHeapMinPQ(size);
+            isTouched = new boolean[size];
+            touched = new IntList();
+            Arrays.fill(forwardDist, Double.POSITIVE_INFINITY);
+            Arrays.fill(backwardDist, Double.POSITIVE_INFINITY);
+            Arrays.fill(forwardEdge, -1);
+            Arrays.fill(backwardEdge, -1);
+        }
+
+        void reset() {
+            for (int i = 0; i < touched.size; i += 1) {
+                int v = touched.values[i];
+                forwardDist[v] = Double.POSITIVE_INFINITY;
+                backwardDist[v] = Double.POSITIVE_INFINITY;
+                forwardEdge[v] = -1;
+                backwardEdge[v] = -1;
+                isTouched[v] = false;
+            }
+            touched.size = 0;
+            forwardPQ.clear();
+            backwardPQ.clear();
+        }
+
+        private void touch(int v) {
+            if (!isTouched[v]) {
+                isTouched[v] = true;
+                touched.add(v);
+            }
+        }
+
+        void visitForward(int v, double dist, int edge, int source) {
+            touch(v);
+            forwardDist[v] = dist;
+            forwardEdge[v] = edge;
+            forwardSource[v] = source;
+            if (forwardPQ.contains(v)) {
+                forwardPQ.changePriority(v, dist);
+            } else {
+                forwardPQ.add(v, dist);
+            }
+        }
+
+        void visitBackward(int v, double dist, int edge, int target) {
+            touch(v);
+            backwardDist[v] = dist;
+            backwardEdge[v] = edge;
+            backwardTarget[v] = target;
+            if (backwardPQ.contains(v)) {
+                backwardPQ.changePriority(v, dist);
+            } else {
+                backwardPQ.add(v, dist);
+            }
+        }
+    }
+
+    /**
+     * Mutable overlay graph used during preprocessing: the remaining (uncontracted) graph plus shortcuts.
+     */
+    private static class Contractor {
+        private final int size;
+        private final int originalEdgeCount;
+        private final long checksum;
+        private final int[][] outTargets;
+        private final double[][] outWeights;
+        private final int[][] outMiddles;
+        private final int[] outSizes;
+        private final int[][] inSources;
+        private final double[][] inWeights;
+        private final int[][] inMiddles;
+        private final int[] inSizes;
+        private final boolean[] contracted;
+        private final int[] contractedNeighbors;
+        /**
+         * Witness search state, reset after each search using the list of touched vertices.
+         */
+        private final double[] witnessDist;
+        private final IntHeapMinPQ witnessPQ;
+        private final IntList witnessTouched;
+
+        Contractor(IntGraph graph) {
+            size = graph.size();
+            originalEdgeCount = size == 0 ? 0 : graph.endEdge(size - 1);
+            checksum = checksum(graph);
+            outTargets = new int[size][];
+            outWeights = new double[size][];
+            outMiddles = new int[size][];
+            outSizes = new int[size];
+            inSources = new int[size][];
+            inWeights = new double[size][];
+            inMiddles = new int[size][];
+            inSizes = new int[size];
+            for (int v = 0; v < size; v += 1) {
+                outTargets[v] = new int[4];
+                outWeights[v] = new double[4];
+                outMiddles[v] = new int[4];
+                inSources[v] = new int[4];
+                inWeights[v] = new double[4];
+                inMiddles[v] = new int[4];
+            }
+            for (int v = 0; v < size; v += 1) {
+                for (int e = graph.firstEdge(v); e < graph.endEdge(v); e += 1) {
+                    if (graph.target(e) != v) {
+                        addEdge(v, graph.target(e), graph.weight(e), -1);
+                    }
+                }
+            }
+            contracted = new boolean[size];
+            contractedNeighbors = new int[size];
+            witnessDist = new double[size];
+            Arrays.fill(witnessDist, Double.POSITIVE_INFINITY);
+            witnessPQ = new IntHeapMinPQ(size);
+            witnessTouched = new IntList();
+        }
+
+        /**
+         * Contracts every vertex in order of increasing priority, lazily updating stale priorities.
+         */
+        ContractionHierarchy contractAll() {
+            IntHeapMinPQ order = new IntHeapMinPQ(size);
+            for (int v = 0; v < size; v += 1) {
+                order.add(v, priority(v));
+            }
+            int[] rank = new int[size];
+            int[][] upEdges = new int[size][];
+            double[][] upEdgeWeights = new double[size][];
+            int[][] upEdgeMiddles = new int[size][];
+            int[][] downEdges = new int[size][];
+            double[][] downEdgeWeights = new double[size][];
+            int[][] downEdgeMiddles = new int[size][];
+            int next = 0;
+            while (!order.isEmpty()) {
+                int v = order.removeMin();
+                double priority = priority(v);
+                if (!order.isEmpty() && priority > order.peekMinPriority()) {
+                    order.add(v, priority);
+                    continue;
+                }
+                rank[v] = next;
+                next += 1;
+                // The remaining edges of v all lead to vertices that will be contracted later.
+                upEdges[v] = Arrays.copyOf(outTargets[v], outSizes[v]);
+                upEdgeWeights[v] = Arrays.copyOf(outWeights[v], outSizes[v]);
+                upEdgeMiddles[v] = Arrays.copyOf(outMiddles[v], outSizes[v]);
+                downEdges[v] = Arrays.copyOf(inSources[v], inSizes[v]);
+                downEdgeWeights[v] = Arrays.copyOf(inWeights[v], inSizes[v]);
+                downEdgeMiddles[v] = Arrays.copyOf(inMiddles[v], inSizes[v]);
+                contract(v);
+                for (int i = 0; i < upEdges[v].length; i += 1) {
+                    contractedNeighbors[upEdges[v][i]] += 1;
+                }
+                for (int i = 0; i < downEdges[v].length; i += 1) {
+                    contractedNeighbors[downEdges[v][i]] += 1;
+                }
+            }
+            int[] upOffsets = new int[size + 1];
+            int[] downOffsets = new int[size + 1];
+            for (int v = 0; v < size; v += 1) {
+                upOffsets[v + 1] = upOffsets[v] + upEdges[v].length;
+                downOffsets[v + 1] = downOffsets[v] + downEdges[v].length;
+            }
+            int[] upTargets = new int[upOffsets[size]];
+            double[] upWeights = new double[upOffsets[size]];
+            int[] upMiddles = new int[upOffsets[size]];
+            int[] downSources = new int[downOffsets[size]];
+            double[] downWeights = new double[downOffsets[size]];
+            int[] downMiddles = new int[downOffsets[size]];
+            for (int v = 0; v < size; v += 1) {
+                System.arraycopy(upEdges[v], 0, upTargets, upOffsets[v], upEdges[v].length);
+                System.arraycopy(upEdgeWeights[v], 0, upWeights, upOffsets[v], upEdges[v].length);
+                System.arraycopy(upEdgeMiddles[v], 0, upMiddles, upOffsets[v], upEdges[v].length);
+                System.arraycopy(downEdges[v], 0, downSources, downOffsets[v], downEdges[v].length);
+                System.arraycopy(downEdgeWeights[v], 0, downWeights, downOffsets[v], downEdges[v].length);
+                System.arraycopy(downEdgeMiddles[v], 0, downMiddles, downOffsets[v], downEdges[v].length);
+            }
+            return new ContractionHierarchy(
+                    rank, originalEdgeCount, checksum,
+                    upOffsets, upTargets, upWeights, upMiddles,
+                    downOffsets, downSources, downWeights, downMiddles,
+                    DEFAULT_SEARCH_SPACES
+            );
+        }
+
+        /**
+         * Returns the edge difference of contracting v plus the number of its already-contracted neighbors, which
+         * spreads contractions evenly across the graph.
+         */
+        private double priority(int v) {
+            int shortcuts = contract(v, true);
+            return shortcuts - outSizes[v] - inSizes[v] + contractedNeighbors[v];
+        }
+
+        /**
+         * Removes v from the overlay graph, adding any shortcuts needed to preserve shortest path distances.
+         */
+        private void contract(int v) {
+            contract(v, false);
+            contracted[v] = true;
+            for (int i = 0; i < outSizes[v]; i += 1) {
+                removeIn(outTargets[v][i], v);
+            }
+            for (int i = 0; i < inSizes[v]; i += 1) {
+                removeOut(inSources[v][i], v);
+            }
+        }
+
+        /**
+         * Finds the shortcuts needed to contract v, adding them unless simulating, and returns how many there were.
+         */
+        private int contract(int v, boolean simulate) {
+            int shortcuts = 0;
+            double maxOut = 0;
+            for (int j = 0; j < outSizes[v]; j += 1) {
+                maxOut = Math.max(maxOut, outWeights[v][j]);
+            }
+            for (int i = 0; i < inSizes[v]; i += 1) {
+                int from = inSources[v][i];
+                double inWeight = inWeights[v][i];
+                witnessSearch(from, v, inWeight + maxOut);
+                for (int j = 0; j < outSizes[v]; j += 1) {
+                    int to = outTargets[v][j];
+                    double weight = inWeight + outWeights[v][j];
+                    if (to != from && witnessDist[to] > weight) {
+                        shortcuts += 1;
+                        if (!simulate) {
+                            addEdge(from, to, weight, v);
+                        }
+                    }
+                }
+                clearWitnessSearch();
+            }
+            return shortcuts;
+        }
+
+        /**
+         * Runs Dijkstra's algorithm from the source in the overlay graph without passing through the excluded vertex,
+         * stopping at the distance limit or after settling a bounded number of vertices.
+         */
+        private void witnessSearch(int source, int excluded, double limit) {
+            witnessDist[source] = 0.0;
+            witnessTouched.add(source);
+            witnessPQ.add(source, 0.0);
+            int settled = 0;
+            while (!witnessPQ.isEmpty() && settled < WITNESS_SETTLE_LIMIT) {
+                if (witnessPQ.peekMinPriority() > limit) {
+                    break;
+                }
+                int from = witnessPQ.removeMin();
+                settled += 1;
+                for (int i = 0; i < outSizes[from]; i += 1) {
+                    int to = outTargets[from][i];
+                    if (to == excluded) {
+                        continue;
+                    }
+                    double newDist = witnessDist[from] + outWeights[from][i];
+                    if (newDist < witnessDist[to]) {
+                        if (witnessDist[to] == Double.POSITIVE_INFINITY) {
+                            witnessTouched.add(to);
+                        }
+                        witnessDist[to] = newDist;
+                        if (witnessPQ.contains(to)) {
+                            witnessPQ.changePriority(to, newDist);
+                        } else {
+                            witnessPQ.add(to, newDist);
+                        }
+                    }
+                }
+            }
+        }
+
+        private void clearWitnessSearch() {
+            for (int i = 0; i < witnessTouched.size; i += 1) {
+                witnessDist[witnessTouched.values[i]] = Double.POSITIVE_INFINITY;
+            }
+            witnessTouched.size = 0;
+            witnessPQ.clear();
+        }
+
+        /**
+         * Adds the edge to the overlay graph, or lowers the weight of the existing edge between the same vertices.
+         */
+        private void addEdge(int from, int to, double weight, int middle) {
+            for (int i = 0; i < outSizes[from]; i += 1) {
+                if (outTargets[from][i] == to) {
+                    if (weight < outWeights[from][i]) {
+                        outWeights[from][i] = weight;
+                        outMiddles[from][i] = middle;
+                        for (int j = 0; j < inSizes[to]; j += 1) {
+                            if (inSources[to][j] == from) {
+                                inWeights[to][j] = weight;
+                                inMiddles[to][j] = middle;
+                            }
+                        }
+                    }
+                    return;
+                }
+            }
+            if (outSizes[from] == outTargets[from].length) {
+                int capacity = outSizes[from] * 2;
+                outTargets[from] = Arrays.copyOf(outTargets[from], capacity);
+                outWeights[from] = Arrays.copyOf(outWeights[from], capacity);
+                outMiddles[from] = Arrays.copyOf(outMiddles[from], capacity);
+            }
+            outTargets[from][outSizes[from]] = to;
+            outWeights[from][outSizes[from]] = weight;
+            outMiddles[from][outSizes[from]] = middle;
+            outSizes[from] += 1;
+            if (inSizes[to] == inSources[to].length) {
+                int capacity = inSizes[to] * 2;
+                inSources[to] = Arrays.copyOf(inSources[to], capacity);
+                inWeights[to] = Arrays.copyOf(inWeights[to], capacity);
+                inMiddles[to] = Arrays.copyOf(inMiddles[to], capacity);
+            }
+            inSources[to][inSizes[to]] = from;
+            inWeights[to][inSizes[to]] = weight;
+            inMiddles[to][inSizes[to]] = middle;
+            inSizes[to] += 1;
+        }
+
+        /**
+         * Removes the edge from the given source out of the in-edges of v.
+         */
+        private void removeIn(int v, int source) {
+            for (int i = 0; i < inSizes[v]; i += 1) {
+                if (inSources[v][i] == source) {
+                    int last = inSizes[v] - 1;
+                    inSources[v][i] = inSources[v][last];
+                    inWeights[v][i] = inWeights[v][last];
+                    inMiddles[v][i] = inMiddles[v][last];
+                    inSizes[v] = last;
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Removes the edge to the given target out of the out-edges of v.
+         */
+        private void removeOut(int v, int target) {
+            for (int i = 0; i < outSizes[v]; i += 1) {
+                if (outTargets[v][i] == target) {
+                    int last = outSizes[v] - 1;
+                    outTargets[v][i] = outTargets[v][last];
+                    outWeights[v][i] = outWeights[v][last];
+                    outMiddles[v][i] = outMiddles[v][last];
+                    outSizes[v] = last;
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package graphs.shortestpaths;
+
+import graphs.AStarGraph;
+import graphs.CSRGraph;
+import graphs.Edge;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compare {@link ContractionHierarchySolver} against {@link AStarSolver} to check that they compute the same shortest
+ * path costs on random pairs of vertices in small random road-like graphs. The graphs include one-way edges and
+ * vertices without edges, so some goals are unreachable.
+ *
+ * @see ContractionHierarchy
+ * @see ContractionHierarchySolver
+ * @see AStarSolver
+ */
+class ContractionHierarchyMultiTest {
+    /**
+     * Error tolerance for shortest path costs, which may sum the same edges in a different order.
+     */
+    private static final double EPSILON = 1e-9;
+    /**
+     * Seed for the random number generator, so that failures can be reproduced.
+     */
+    private static final long SEED = 373;
+    /**
+     * Number of random graphs to test.
+     */
+    private static final int GRAPHS = 20;
+    /**
+     * Number of vertices in each random graph.
+     */
+    private static final int VERTICES = 300;
+    /**
+     * Number of random start and goal pairs to query per graph.
+     */
+    private static final int PAIRS = 200;
+
+    /**
+     * Graph over vertices placed at random in the unit square, where each edge is at least as long as the straight
+     * line between its endpoints so that the straight-line distance is an admissible heuristic.
+     */
+    private static class RandomGraph implements AStarGraph<Integer> {
+        private final double[] xs;
+        private final double[] ys;
+        private final CSRGraph graph;
+
+        RandomGraph(Random random) {
+            xs = new double[VERTICES];
+            ys = new double[VERTICES];
+            for (int v = 0; v < VERTICES; v += 1) {
+                xs[v] = random.nextDouble();
+                ys[v] = random.nextDouble();
+            }
+            CSRGraph.Builder builder = new CSRGraph.Builder().ensureSize(VERTICES);
+            for (int v = 0; v < VERTICES; v += 1) {
+                // Leave some vertices without outgoing edges.
+                int degree = random.nextInt(10) == 0 ? 0 : 1 + random.nextInt(3);
+                for (int i = 0; i < degree; i += 1) {
+                    int to = nearby(random, v);
+                    double weight = distance(v, to) * (1 + random.nextDouble());
+                    builder.addEdge(v, to, weight);
+                    // Most roads are two-way.
+                    if (random.nextInt(4) != 0) {
+                        builder.addEdge(to, v, weight);
+                    }
+                }
+            }
+            graph = builder.build();
+        }
+
+        /**
+         * Returns the closest of a few random vertices other than v, so that edges are mostly local.
+         */
+        private int nearby(Random random, int v) {
+            int best = -1;
+            for (int i = 0; i < 8; i += 1) {
+                int candidate = random.nextInt(VERTICES);
+                if (candidate != v && (best == -1 || distance(v, candidate) < distance(v, best))) {
+                    best = candidate;
+                }
+            }
+            return best == -1 ? (v + 1) % VERTICES : best;
+        }
+
+        private double distance(int a, int b) {
+            return Math.hypot(xs[a] - xs[b], ys[a] - ys[b]);
+        }
+
+        @Override
+        public List<Edge<Integer>> neighbors(Integer v) {
+            List<Edge<Integer>> result = new ArrayList<>();
+            for (int e = graph.firstEdge(v); e < graph.endEdge(v); e += 1) {
+                result.add(new Edge<>(v, graph.target(e), graph.weight(e)));
+            }
+            return result;
+        }
+
+        @Override
+        public double estimatedDistance(Integer start, Integer end) {
+            return distance(start, end);
+        }
+
+        /**
+         * Returns the cost of the path, or infinity if it does not lead from the start to the goal.
+         */
+        double cost(List<Integer> path, int start, int goal) {
+            if (path.get(0) != start || path.get(path.size() - 1) != goal) {
+                return Double.POSITIVE_INFINITY;
+            }
+            double cost = 0.0;
+            for (int i = 1; i < path.size(); i += 1) {
+                cost += weight(path.get(i - 1), path.get(i));
+            }
+            return cost;
+        }
+
+        /**
+         * Returns the cost of the path, or infinity if it does not lead from the start to the goal.
+         */
+        double cost(int[] path, int start, int goal) {
+            List<Integer> list = new ArrayList<>(path.length);
+            for (int v : path) {
+                list.add(v);
+            }
+            return cost(list, start, goal);
+        }
+
+        /**
+         * Returns the weight of the lightest edge between the vertices, or infinity if there is none.
+         */
+        private double weight(int from, int to) {
+            double weight = Double.POSITIVE_INFINITY;
+            for (int e = graph.firstEdge(from); e < graph.endEdge(from); e += 1) {
+                if (graph.target(e) == to) {
+                    weight = Math.min(weight, graph.weight(e));
+                }
+            }
+            return weight;
+        }
+    }
+
+    public static void main(String[] args) {
+        Random random = new Random(SEED);
+        int failures = 0;
+        int unreachable = 0;
+        for (int g = 0; g < GRAPHS; g += 1) {
+            RandomGraph graph = new RandomGraph(random);
+            ContractionHierarchy hierarchy = ContractionHierarchy.build(graph.graph);
+            if (!hierarchy.matches(graph.graph)) {
+                failures += 1;
+                System.out.println("Graph " + g + " matches FAIL!");
+            }
+            for (int i = 0; i < PAIRS; i += 1) {
+                int start = random.nextInt(VERTICES);
+                int goal = random.nextInt(VERTICES);
+                double expected = graph.cost(new AStarSolver<>(graph, start, goal).solution(), start, goal);
+                ContractionHierarchySolver solver = new ContractionHierarchySolver(hierarchy, start, goal);
+                // The unpacked path must cost what the hierarchy says it does.
+                double actual = graph.cost(solver.solution(), start, goal);
+                if (expected == Double.POSITIVE_INFINITY) {
+                    unreachable += 1;
+                }
+                boolean same = expected == Double.POSITIVE_INFINITY
+                        ? actual == expected && solver.distance() == expected
+                        : Math.abs(expected - actual) <= EPSILON && Math.abs(expected - solver.distance()) <= EPSILON;
+                if (!same) {
+                    failures += 1;
+                    System.out.println("Graph " + g + " from " + start + " to " + goal + " FAIL!");
+                    System.out.println("  AStarSolver cost " + expected);
+                    System.out.println("  ContractionHierarchySolver cost " + actual + ", distance "
+                            + solver.distance());
+                }
+            }
+        }
+        System.out.println(GRAPHS * PAIRS + " pairs, " + unreachable + " unreachable");
+        System.out.println("ContractionHierarchySolver " + (failures == 0 ? "PASS!" : "FAIL! (" + failures + ")"));
+    }
+}
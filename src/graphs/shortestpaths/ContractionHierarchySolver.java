@@ -0,0 +1,44 @@
+package graphs.shortestpaths;
+
+/**
+ * Bidirectional upward search implementation for single-pair shortest paths in a {@link ContractionHierarchy}.
+ * Computes the same distances as {@link IntAStarSolver} on the graph the hierarchy was built from.
+ *
+ * @see ContractionHierarchy
+ * @see IntAStarSolver
+ */
+public class ContractionHierarchySolver {
+    private final int[] path;
+    private final double distance;
+
+    /**
+     * Constructs a new instance by searching the hierarchy from the start to the goal.
+     *
+     * @param hierarchy the preprocessed contraction hierarchy.
+     * @param start     the start vertex.
+     * @param goal      the goal vertex.
+     */
+    public ContractionHierarchySolver(ContractionHierarchy hierarchy, int start, int goal) {
+        double[] distance = new double[1];
+        this.path = hierarchy.query(start, goal, distance);
+        this.distance = distance[0];
+    }
+
+    /**
+     * Returns the single-pair shortest path from the stored start to the stored goal.
+     *
+     * @return an array of vertices in the original graph representing the shortest path.
+     */
+    public int[] solution() {
+        return path.clone();
+    }
+
+    /**
+     * Returns the total weight of the shortest path from the stored start to the stored goal.
+     *
+     * @return the total weight of the shortest path, or infinity if the goal is unreachable.
+     */
+    public double distance() {
+        return distance;
+    }
+}
@@ -16,6 +16,7 @@ import java.util.*;
 public class DijkstraSolver<V> implements ShortestPathSolver<V> {
     private final Map<V, Edge<V>> edgeTo;
     private final Map<V, Double> distTo;
+    private SearchStatus status;
 
     /**
      * Constructs a new instance by executing Dijkstra's algorithm on the graph from the start.
@@ -24,14 +25,40 @@ public class DijkstraSolver<V> implements ShortestPathSolver<V> {
      * @param start the start vertex.
      */
     public DijkstraSolver(Graph<V> graph, V start) {
+        this(graph, start, null, SearchOptions.EXHAUSTIVE);
+    }
+
+    /**
+     * Constructs a new instance by executing Dijkstra's algorithm on the graph from the start until the options stop
+     * the search. Only the shortest paths to settled vertices are guaranteed to be exact.
+     *
+     * @param graph   the input graph.
+     * @param start   the start vertex.
+     * @param goal    the goal vertex for {@link SearchOptions#stopAtGoal()}, or null if there is none.
+     * @param options the options that bound the search.
+     */
+    public DijkstraSolver(Graph<V> graph, V start, V goal, SearchOptions options) {
         this.edgeTo = new HashMap<>();
         this.distTo = new HashMap<>();
         ExtrinsicMinPQ<V> pq = new DoubleMapMinPQ<>();
         pq.add(start, 0.0);
         edgeTo.put(start, null);
         distTo.put(start, 0.0);
+        status = SearchStatus.EXHAUSTED;
+        long startNanos = System.nanoTime();
+        int settled = 0;
         while (!pq.isEmpty()) {
             V from = pq.removeMin();
+            SearchStatus stop = options.check(settled, distTo.get(from), startNanos);
+            if (stop != null) {
+                status = stop;
+                return;
+            }
+            settled += 1;
+            if (options.stopAtGoal() && from.equals(goal)) {
+                status = SearchStatus.GOAL_SETTLED;
+                return;
+            }
             for (Edge<V> e : graph.neighbors(from)) {
                 V to = e.to;
                 double oldDist = distTo.getOrDefault(to, Double.POSITIVE_INFINITY);
@@ -61,4 +88,13 @@ public class DijkstraSolver<V> implements ShortestPathSolver<V> {
         Collections.reverse(path);
         return path;
     }
+
+    /**
+     * Returns the reason the search stopped.
+     *
+     * @return the reason the search stopped.
+     */
+    public SearchStatus status() {
+        return status;
+    }
 }
@@ -0,0 +1,130 @@
+package graphs.shortestpaths;
+
+import graphs.IntAStarGraph;
+import minpq.IntHeapMinPQ;
+
+import java.util.Arrays;
+
+/**
+ * A* search implementation for single-pair shortest paths in an {@link IntAStarGraph}. Computes the same result as
+ * {@link AStarSolver} but stores the search state in arrays indexed by vertex id instead of hash maps. By default, the
+ * search stops as soon as the goal is settled.
+ *
+ * @see IntAStarGraph
+ * @see AStarSolver
+ */
+public class IntAStarSolver {
+    private final int[] edgeTo;
+    private final double[] distTo;
+    private final int goal;
+    private int settled;
+    private SearchStatus status;
+
+    /**
+     * Constructs a new instance by executing A* search on the graph from the start to the goal.
+     *
+     * @param graph the input graph.
+     * @param start the start vertex.
+     * @param goal  the goal vertex.
+     */
+    public IntAStarSolver(IntAStarGraph graph, int start, int goal) {
+        this(graph, start, goal, SearchOptions.STOP_AT_GOAL);
+    }
+
+    /**
+     * Constructs a new instance by executing A* search on the graph from the start to the goal until the options stop
+     * the search. The solution is only guaranteed to be a shortest path if {@link #status()} is complete.
+     *
+     * @param graph   the input graph.
+     * @param start   the start vertex.
+     * @param goal    the goal vertex.
+     * @param options the options that bound the search.
+     */
+    public IntAStarSolver(IntAStarGraph graph, int start, int goal, SearchOptions options) {
+        this.edgeTo = new int[graph.size()];
+        this.distTo = new double[graph.size()];
+        this.goal = goal;
+        Arrays.fill(edgeTo, -1);
+        Arrays.fill(distTo, Double.POSITIVE_INFINITY);
+        IntHeapMinPQ pq = new IntHeapMinPQ(graph.size());
+        pq.add(start, 0.0);
+        distTo[start] = 0.0;
+        settled = 0;
+        status = SearchStatus.EXHAUSTED;
+        long startNanos = System.nanoTime();
+        while (!pq.isEmpty()) {
+            SearchStatus stop = options.check(settled, pq.peekMinPriority(), startNanos);
+            if (stop != null) {
+                status = stop;
+                return;
+            }
+            int from = pq.removeMin();
+            settled += 1;
+            if (options.stopAtGoal() && from == goal) {
+                // Vertices are re-added whenever their distance improves, so an admissible heuristic suffices.
+                status = SearchStatus.GOAL_SETTLED;
+                return;
+            }
+            for (int e = graph.firstEdge(from); e < graph.endEdge(from); e += 1) {
+                int to = graph.target(e);
+                double newDist = distTo[from] + graph.weight(e);
+                if (newDist < distTo[to]) {
+                    edgeTo[to] = from;
+                    distTo[to] = newDist;
+                    double priority = newDist + graph.estimatedDistance(to, goal);
+                    if (pq.contains(to)) {
+                        pq.changePriority(to, priority);
+                    } else {
+                        pq.add(to, priority);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the single-pair shortest path from the stored start to the stored goal.
+     *
+     * @return an array of vertices representing the shortest path.
+     */
+    public int[] solution() {
+        int length = 1;
+        for (int curr = goal; edgeTo[curr] != -1; curr = edgeTo[curr]) {
+            length += 1;
+        }
+        int[] path = new int[length];
+        int curr = goal;
+        for (int i = length - 1; i >= 0; i -= 1) {
+            path[i] = curr;
+            curr = edgeTo[curr];
+        }
+        return path;
+    }
+
+    /**
+     * Returns the total weight of the shortest path from the stored start to the stored goal.
+     *
+     * @return the total weight of the shortest path, or infinity if the goal is unreachable.
+     */
+    public double distance() {
+        return distTo[goal];
+    }
+
+    /**
+     * Returns the number of vertices removed from the priority queue during the search.
+     *
+     * @return the number of vertices settled during the search.
+     */
+    public int settled() {
+        return settled;
+    }
+
+    /**
+     * Returns the reason the search stopped.
+     *
+     * @return the reason the search stopped.
+     */
+    public SearchStatus status() {
+        return status;
+    }
+}
@@ -0,0 +1,115 @@
+package graphs.shortestpaths;
+
+import graphs.IntGraph;
+import minpq.IntHeapMinPQ;
+
+import java.util.Arrays;
+
+/**
+ * Dijkstra's algorithm implementation for single-source shortest paths in an {@link IntGraph}. Computes the same
+ * result as {@link DijkstraSolver} but stores the search state in arrays indexed by vertex id.
+ *
+ * @see IntGraph
+ * @see DijkstraSolver
+ */
+public class IntDijkstraSolver {
+    private final int[] edgeTo;
+    private final double[] distTo;
+    private SearchStatus status;
+
+    /**
+     * Constructs a new instance by executing Dijkstra's algorithm on the graph from the start.
+     *
+     * @param graph the input graph.
+     * @param start the start vertex.
+     */
+    public IntDijkstraSolver(IntGraph graph, int start) {
+        this(graph, start, -1, SearchOptions.EXHAUSTIVE);
+    }
+
+    /**
+     * Constructs a new instance by executing Dijkstra's algorithm on the graph from the start until the options stop
+     * the search. Only the shortest paths to settled vertices are guaranteed to be exact.
+     *
+     * @param graph   the input graph.
+     * @param start   the start vertex.
+     * @param goal    the goal vertex for {@link SearchOptions#stopAtGoal()}, or -1 if there is none.
+     * @param options the options that bound the search.
+     */
+    public IntDijkstraSolver(IntGraph graph, int start, int goal, SearchOptions options) {
+        this.edgeTo = new int[graph.size()];
+        this.distTo = new double[graph.size()];
+        Arrays.fill(edgeTo, -1);
+        Arrays.fill(distTo, Double.POSITIVE_INFINITY);
+        IntHeapMinPQ pq = new IntHeapMinPQ(graph.size());
+        pq.add(start, 0.0);
+        distTo[start] = 0.0;
+        status = SearchStatus.EXHAUSTED;
+        long startNanos = System.nanoTime();
+        int settled = 0;
+        while (!pq.isEmpty()) {
+            SearchStatus stop = options.check(settled, pq.peekMinPriority(), startNanos);
+            if (stop != null) {
+                status = stop;
+                return;
+            }
+            int from = pq.removeMin();
+            settled += 1;
+            if (options.stopAtGoal() && from == goal) {
+                status = SearchStatus.GOAL_SETTLED;
+                return;
+            }
+            for (int e = graph.firstEdge(from); e < graph.endEdge(from); e += 1) {
+                int to = graph.target(e);
+                double newDist = distTo[from] + graph.weight(e);
+                if (newDist < distTo[to]) {
+                    edgeTo[to] = from;
+                    distTo[to] = newDist;
+                    if (pq.contains(to)) {
+                        pq.changePriority(to, newDist);
+                    } else {
+                        pq.add(to, newDist);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the single-pair shortest path from the start vertex to the goal.
+     *
+     * @param goal the goal vertex.
+     * @return an array of vertices representing the shortest path.
+     */
+    public int[] solution(int goal) {
+        int length = 1;
+        for (int curr = goal; edgeTo[curr] != -1; curr = edgeTo[curr]) {
+            length += 1;
+        }
+        int[] path = new int[length];
+        int curr = goal;
+        for (int i = length - 1; i >= 0; i -= 1) {
+            path[i] = curr;
+            curr = edgeTo[curr];
+        }
+        return path;
+    }
+
+    /**
+     * Returns the shortest path distance from the start vertex to every vertex. The array is not copied.
+     *
+     * @return the shortest path distance to every vertex, or infinity for unreachable vertices.
+     */
+    public double[] distances() {
+        return distTo;
+    }
+
+    /**
+     * Returns the reason the search stopped.
+     *
+     * @return the reason the search stopped.
+     */
+    public SearchStatus status() {
+        return status;
+    }
+}
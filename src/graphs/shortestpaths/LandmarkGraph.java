@@ -0,0 +1,222 @@
+package graphs.shortestpaths;
+
+import graphs.AStarGraph;
+import graphs.CSRGraph;
+import graphs.Edge;
+import graphs.IntAStarGraph;
+import graphs.IntGraph;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.ToIntFunction;
+
+/**
+ * {@link AStarGraph} decorator that strengthens the heuristic of a graph with ALT (A*, landmarks, and triangle
+ * inequality) lower bounds. For each landmark L, the exact distances d(L, v) and d(v, L) are precomputed for every
+ * vertex v, and the triangle inequality gives d(v, t) &ge; d(L, t) - d(L, v) and d(v, t) &ge; d(v, L) - d(t, L). The
+ * estimated distance is the maximum of these bounds and the original heuristic, so it remains admissible and
+ * {@link AStarSolver} and {@link IntAStarSolver} find the same shortest paths while settling fewer vertices.
+ * <p>
+ * Landmarks are selected with the farthest strategy: each new landmark is the vertex whose shortest path distance to
+ * the closest already-selected landmark is greatest, which spreads landmarks around the edges of the graph. Only
+ * vertices in the largest weakly connected component are candidates, since a landmark gives no bounds for vertices
+ * it cannot reach, so fewer landmarks are selected if that component is too small.
+ *
+ * @param <V> the type of vertices.
+ * @see AStarGraph
+ * @see IntAStarGraph
+ * @see IntAStarSolver
+ */
+public class LandmarkGraph<V> implements AStarGraph<V>, IntAStarGraph {
+    private final AStarGraph<V> graph;
+    private final IntAStarGraph intGraph;
+    private final ToIntFunction<V> ids;
+    private final int[] landmarks;
+    /**
+     * The distance from each landmark to each vertex, indexed by landmark then vertex.
+     */
+    private final double[][] fromLandmark;
+    /**
+     * The distance from each vertex to each landmark, indexed by landmark then vertex.
+     */
+    private final double[][] toLandmark;
+
+    /**
+     * Constructs a new instance by selecting landmarks and precomputing their distances with Dijkstra's algorithm.
+     *
+     * @param graph         the graph to decorate, viewed both with vertex objects and with vertex ids.
+     * @param ids           the function returning the vertex id of each vertex, or -1 if it is not in the graph.
+     * @param landmarkCount the number of landmarks to select.
+     * @param <G>           the type of the graph.
+     */
+    public <G extends AStarGraph<V> & IntAStarGraph> LandmarkGraph(G graph, ToIntFunction<V> ids, int landmarkCount) {
+        this.graph = graph;
+        this.intGraph = graph;
+        this.ids = ids;
+        int size = graph.size();
+        CSRGraph reversed = CSRGraph.reverse(graph);
+        boolean[] candidates = largestComponent(graph);
+        int[] selected = new int[Math.max(0, Math.min(landmarkCount, size))];
+        double[][] from = new double[selected.length][];
+        double[][] to = new double[selected.length][];
+        double[] closest = new double[size];
+        Arrays.fill(closest, Double.POSITIVE_INFINITY);
+        int seed = 0;
+        while (seed < size && !candidates[seed]) {
+            seed += 1;
+        }
+        int next = -1;
+        if (selected.length > 0 && seed < size) {
+            // Start from the vertex farthest from the seed rather than from the seed itself.
+            next = farthest(new IntDijkstraSolver(graph, seed).distances(), candidates);
+            if (next == -1) {
+                next = seed;
+            }
+        }
+        int count = 0;
+        while (next != -1 && count < selected.length) {
+            selected[count] = next;
+            from[count] = new IntDijkstraSolver(graph, next).distances();
+            to[count] = new IntDijkstraSolver(reversed, next).distances();
+            for (int v = 0; v < size; v += 1) {
+                closest[v] = Math.min(closest[v], Math.min(from[count][v], to[count][v]));
+            }
+            count += 1;
+            next = farthest(closest, candidates);
+        }
+        landmarks = Arrays.copyOf(selected, count);
+        fromLandmark = Arrays.copyOf(from, count);
+        toLandmark = Arrays.copyOf(to, count);
+    }
+
+    /**
+     * Returns the selected landmark vertex ids.
+     *
+     * @return the selected landmark vertex ids.
+     */
+    public int[] landmarks() {
+        return landmarks.clone();
+    }
+
+    @Override
+    public List<Edge<V>> neighbors(V vertex) {
+        return graph.neighbors(vertex);
+    }
+
+    @Override
+    public double estimatedDistance(V start, V end) {
+        int from = ids.applyAsInt(start);
+        int to = ids.applyAsInt(end);
+        if (from == -1 || to == -1) {
+            return graph.estimatedDistance(start, end);
+        }
+        return Math.max(graph.estimatedDistance(start, end), landmarkDistance(from, to));
+    }
+
+    @Override
+    public int size() {
+        return intGraph.size();
+    }
+
+    @Override
+    public int firstEdge(int vertex) {
+        return intGraph.firstEdge(vertex);
+    }
+
+    @Override
+    public int endEdge(int vertex) {
+        return intGraph.endEdge(vertex);
+    }
+
+    @Override
+    public int target(int edge) {
+        return intGraph.target(edge);
+    }
+
+    @Override
+    public double weight(int edge) {
+        return intGraph.weight(edge);
+    }
+
+    @Override
+    public double estimatedDistance(int start, int end) {
+        return Math.max(intGraph.estimatedDistance(start, end), landmarkDistance(start, end));
+    }
+
+    /**
+     * Returns the greatest triangle inequality lower bound on the distance from start to end over all landmarks.
+     * Bounds involving unreachable landmarks are skipped.
+     */
+    private double landmarkDistance(int start, int end) {
+        double result = 0.0;
+        for (int i = 0; i < landmarks.length; i += 1) {
+            double[] from = fromLandmark[i];
+            double[] to = toLandmark[i];
+            if (from[start] != Double.POSITIVE_INFINITY && from[end] != Double.POSITIVE_INFINITY) {
+                result = Math.max(result, from[end] - from[start]);
+            }
+            if (to[start] != Double.POSITIVE_INFINITY && to[end] != Double.POSITIVE_INFINITY) {
+                result = Math.max(result, to[start] - to[end]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the candidate vertex with the greatest finite distance, or -1 if every candidate has distance 0 or an
+     * infinite distance. Vertices that are already landmarks have distance 0, so they are never selected twice.
+     */
+    private static int farthest(double[] distances, boolean[] candidates) {
+        int result = -1;
+        double best = 0.0;
+        for (int v = 0; v < distances.length; v += 1) {
+            if (candidates[v] && distances[v] != Double.POSITIVE_INFINITY && distances[v] > best) {
+                result = v;
+                best = distances[v];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns whether each vertex is in the largest weakly connected component of the graph, ignoring the direction
+     * of edges. Ties are broken by the component containing the lowest vertex id.
+     */
+    private static boolean[] largestComponent(IntGraph graph) {
+        int size = graph.size();
+        // Union-find over the vertices, with path halving.
+        int[] parent = new int[size];
+        for (int v = 0; v < size; v += 1) {
+            parent[v] = v;
+        }
+        for (int v = 0; v < size; v += 1) {
+            for (int e = graph.firstEdge(v); e < graph.endEdge(v); e += 1) {
+                parent[root(parent, v)] = root(parent, graph.target(e));
+            }
+        }
+        int[] counts = new int[size];
+        for (int v = 0; v < size; v += 1) {
+            counts[root(parent, v)] += 1;
+        }
+        int largest = -1;
+        for (int v = 0; v < size; v += 1) {
+            int root = root(parent, v);
+            if (largest == -1 || counts[root] > counts[largest]) {
+                largest = root;
+            }
+        }
+        boolean[] result = new boolean[size];
+        for (int v = 0; v < size; v += 1) {
+            result[v] = root(parent, v) == largest;
+        }
+        return result;
+    }
+
+    private static int root(int[] parent, int v) {
+        while (parent[v] != v) {
+            parent[v] = parent[parent[v]];
+            v = parent[v];
+        }
+        return v;
+    }
+}
@@ -0,0 +1,127 @@
+package graphs.shortestpaths;
+
+import java.time.Duration;
+
+/**
+ * Immutable options that bound the work done by a shortest paths search. Each {@code with} method returns a copy
+ * with one option changed, so shared constants can be safely customized.
+ *
+ * @see SearchStatus
+ */
+public final class SearchOptions {
+    /**
+     * Options that settle every reachable vertex.
+     */
+    public static final SearchOptions EXHAUSTIVE = new SearchOptions(
+            false, Integer.MAX_VALUE, Double.POSITIVE_INFINITY, Long.MAX_VALUE
+    );
+    /**
+     * Options that stop as soon as the shortest path to the goal is known.
+     */
+    public static final SearchOptions STOP_AT_GOAL = EXHAUSTIVE.withStopAtGoal(true);
+
+    private final boolean stopAtGoal;
+    private final int maxSettled;
+    private final double maxDistance;
+    /**
+     * The maximum running time in nanoseconds, or {@link Long#MAX_VALUE} for no limit.
+     */
+    private final long timeoutNanos;
+
+    private SearchOptions(boolean stopAtGoal, int maxSettled, double maxDistance, long timeoutNanos) {
+        this.stopAtGoal = stopAtGoal;
+        this.maxSettled = maxSettled;
+        this.maxDistance = maxDistance;
+        this.timeoutNanos = timeoutNanos;
+    }
+
+    /**
+     * Returns a copy of these options that stops (or doesn't stop) once the goal is settled.
+     *
+     * @param stopAtGoal whether to stop once the goal is settled.
+     * @return a copy of these options with the given goal behavior.
+     */
+    public SearchOptions withStopAtGoal(boolean stopAtGoal) {
+        return new SearchOptions(stopAtGoal, maxSettled, maxDistance, timeoutNanos);
+    }
+
+    /**
+     * Returns a copy of these options that settles at most the given number of vertices.
+     *
+     * @param maxSettled the maximum number of vertices to settle.
+     * @return a copy of these options with the given settled vertex budget.
+     * @throws IllegalArgumentException if maxSettled is negative.
+     */
+    public SearchOptions withMaxSettled(int maxSettled) {
+        if (maxSettled < 0) {
+            throw new IllegalArgumentException("Negative maxSettled: " + maxSettled);
+        }
+        return new SearchOptions(stopAtGoal, maxSettled, maxDistance, timeoutNanos);
+    }
+
+    /**
+     * Returns a copy of these options that stops once every remaining path is longer than the given distance.
+     *
+     * @param maxDistance the maximum path length to search.
+     * @return a copy of these options with the given search radius.
+     * @throws IllegalArgumentException if maxDistance is negative or NaN.
+     */
+    public SearchOptions withMaxDistance(double maxDistance) {
+        if (!(maxDistance >= 0)) {
+            throw new IllegalArgumentException("Invalid maxDistance: " + maxDistance);
+        }
+        return new SearchOptions(stopAtGoal, maxSettled, maxDistance, timeoutNanos);
+    }
+
+    /**
+     * Returns a copy of these options that stops once the search has run for the given amount of time. The clock
+     * starts when each search starts, not when the options are created.
+     *
+     * @param timeout the maximum running time of each search.
+     * @return a copy of these options with the given timeout.
+     * @throws IllegalArgumentException if timeout is negative.
+     */
+    public SearchOptions withTimeout(Duration timeout) {
+        if (timeout.isNegative()) {
+            throw new IllegalArgumentException("Negative timeout: " + timeout);
+        }
+        long nanos = timeout.compareTo(Duration.ofNanos(Long.MAX_VALUE)) >= 0 ? Long.MAX_VALUE : timeout.toNanos();
+        return new SearchOptions(stopAtGoal, maxSettled, maxDistance, nanos);
+    }
+
+    /**
+     * Returns true if searches should stop once the goal is settled.
+     *
+     * @return true if searches should stop once the goal is settled.
+     */
+    public boolean stopAtGoal() {
+        return stopAtGoal;
+    }
+
+    /**
+     * Returns the budget that stops a search about to settle another vertex, or null if the search may continue.
+     *
+     * @param settled    the number of vertices settled so far.
+     * @param distance   a lower bound on the length of any path through the next vertex.
+     * @param startNanos the {@link System#nanoTime()} when the search started.
+     * @return the status that should end the search, or null if the search may continue.
+     */
+    SearchStatus check(int settled, double distance, long startNanos) {
+        if (settled >= maxSettled) {
+            return SearchStatus.SETTLED_LIMIT;
+        }
+        if (distance > maxDistance) {
+            return SearchStatus.DISTANCE_LIMIT;
+        }
+        if (timeoutNanos != Long.MAX_VALUE && System.nanoTime() - startNanos >= timeoutNanos) {
+            return SearchStatus.TIMEOUT;
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return "SearchOptions{stopAtGoal=" + stopAtGoal + ", maxSettled=" + maxSettled
+                + ", maxDistance=" + maxDistance + ", timeoutNanos=" + timeoutNanos + "}";
+    }
+}
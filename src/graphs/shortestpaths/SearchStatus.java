@@ -0,0 +1,39 @@
+package graphs.shortestpaths;
+
+/**
+ * The reason a shortest paths search stopped.
+ *
+ * @see SearchOptions
+ */
+public enum SearchStatus {
+    /**
+     * Every vertex reachable from the start was settled.
+     */
+    EXHAUSTED,
+    /**
+     * The shortest path to the goal was found, so the search stopped early.
+     */
+    GOAL_SETTLED,
+    /**
+     * The search settled the maximum number of vertices before finding the goal.
+     */
+    SETTLED_LIMIT,
+    /**
+     * Every remaining path was longer than the maximum distance. Vertices within the maximum distance were settled.
+     */
+    DISTANCE_LIMIT,
+    /**
+     * The search ran out of time before finding the goal.
+     */
+    TIMEOUT;
+
+    /**
+     * Returns true if the search stopped without hitting a budget, so shortest paths to the goal (if any) and to every
+     * settled vertex are exact.
+     *
+     * @return true if the search completed.
+     */
+    public boolean isComplete() {
+        return this == EXHAUSTED || this == GOAL_SETTLED;
+    }
+}
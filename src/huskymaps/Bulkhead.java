@@ -0,0 +1,118 @@
+package huskymaps;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Limits how many calls of one kind of blocking work run at once, so that slow work can't occupy every request thread.
+ * Callers beyond the limit wait in a bounded queue in arrival order, and are rejected if the queue is full or if they
+ * wait longer than the maximum wait. Queue depth, wait time, and rejections are recorded in {@link Metrics}.
+ *
+ * @see MapServer
+ */
+final class Bulkhead {
+    private final String name;
+    private final Semaphore permits;
+    private final int maxQueued;
+    private final long maxWaitNanos;
+    private final AtomicInteger queued;
+    private final Metrics.Histogram waits;
+    private final Metrics.Counter rejected;
+
+    /**
+     * Constructs a bulkhead and registers its metrics.
+     *
+     * @param name      the name of the bulkhead, used as a metric label.
+     * @param permits   the maximum number of calls that run at once.
+     * @param maxQueued the maximum number of calls that wait for a permit.
+     * @param maxWait   the maximum time a call waits for a permit.
+     * @param metrics   the registry to record queue depth, wait time, and rejections in.
+     * @throws IllegalArgumentException if permits is not positive or maxQueued is negative.
+     */
+    Bulkhead(String name, int permits, int maxQueued, Duration maxWait, Metrics metrics) {
+        if (permits <= 0 || maxQueued < 0) {
+            throw new IllegalArgumentException("Invalid limits: " + permits + " permits, " + maxQueued + " queued");
+        }
+        this.name = name;
+        this.permits = new Semaphore(permits, true);
+        this.maxQueued = maxQueued;
+        this.maxWaitNanos = maxWait.toNanos();
+        this.queued = new AtomicInteger();
+        this.waits = metrics.histogram("huskymaps_bulkhead_wait_seconds", "Time spent waiting for a bulkhead permit.",
+                Metrics.NANOS, "bulkhead", name);
+        this.rejected = metrics.counter("huskymaps_bulkhead_rejected_total",
+                "Calls rejected because the bulkhead queue was full or the wait timed out.", "bulkhead", name);
+        metrics.gauge("huskymaps_bulkhead_queued", "Calls waiting for a bulkhead permit.", queued::get,
+                "bulkhead", name);
+        metrics.gauge("huskymaps_bulkhead_active", "Calls holding a bulkhead permit.",
+                () -> permits - this.permits.availablePermits(), "bulkhead", name);
+    }
+
+    /**
+     * Runs the task once a permit is available and returns its result.
+     *
+     * @param task the task to run.
+     * @return the result of the task.
+     * @throws RejectedExecutionException if the queue is full or no permit became available within the maximum wait.
+     * @throws InterruptedIOException     if the thread was interrupted while waiting for a permit.
+     * @throws IOException                if the task failed.
+     */
+    <V> V call(Task<V> task) throws IOException {
+        long start = System.nanoTime();
+        if (!acquire()) {
+            rejected.increment();
+            throw new RejectedExecutionException(name + " is overloaded");
+        }
+        waits.record(System.nanoTime() - start);
+        try {
+            return task.call();
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Returns whether a permit was acquired, waiting in the queue if there is room.
+     */
+    private boolean acquire() throws InterruptedIOException {
+        try {
+            // A zero timeout respects fairness, so new calls don't overtake queued ones.
+            if (permits.tryAcquire(0, TimeUnit.NANOSECONDS)) {
+                return true;
+            }
+            if (queued.incrementAndGet() > maxQueued) {
+                queued.decrementAndGet();
+                return false;
+            }
+            try {
+                return permits.tryAcquire(maxWaitNanos, TimeUnit.NANOSECONDS);
+            } finally {
+                queued.decrementAndGet();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for " + name);
+        }
+    }
+
+    /**
+     * A unit of blocking work.
+     *
+     * @param <V> the type of the result.
+     */
+    @FunctionalInterface
+    interface Task<V> {
+        /**
+         * Runs the work and returns its result.
+         *
+         * @return the result.
+         * @throws IOException if the work failed.
+         */
+        V call() throws IOException;
+    }
+}
@@ -0,0 +1,191 @@
+package huskymaps;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Thread-safe LRU cache of byte arrays stored as files in a directory, bounded by their total size in bytes. Each key
+ * is stored at a path derived from its SHA-256 hash, split into 256 subdirectories so that no directory gets too large.
+ * Files are written to a temporary file and moved into place, so a crash never leaves a partial entry. The recency
+ * order is kept in memory and in the file modification times, so it survives restarts.
+ *
+ * @see MapImages
+ */
+final class DiskCache {
+    /**
+     * Suffix of the cache files, which distinguishes them from temporary files.
+     */
+    private static final String SUFFIX = ".bin";
+
+    private final Path directory;
+    private final long maxBytes;
+    /**
+     * The size of each cached file by its path relative to the directory, in least-recently-used order.
+     */
+    private final LinkedHashMap<String, Long> sizes;
+    private long bytes;
+    private final Metrics.Counter hits;
+    private final Metrics.Counter misses;
+    private final Metrics.Counter evictions;
+
+    /**
+     * Constructs a cache over the directory, creating it if needed and indexing any files already in it.
+     *
+     * @param directory the directory to store files in.
+     * @param maxBytes  the maximum total size of all files.
+     * @param metrics   the registry to record hits, misses, evictions, and size in.
+     * @throws IOException if the directory cannot be created or read.
+     */
+    DiskCache(Path directory, long maxBytes, Metrics metrics) throws IOException {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.sizes = new LinkedHashMap<>(16, 0.75f, true);
+        Files.createDirectories(directory);
+        // Index existing files from least to most recently used.
+        List<Path> files = new ArrayList<>();
+        Map<Path, BasicFileAttributes> attributes = new LinkedHashMap<>();
+        try (Stream<Path> walk = Files.walk(directory, 2)) {
+            walk.filter(Files::isRegularFile).forEach(file -> {
+                try {
+                    if (file.getFileName().toString().endsWith(SUFFIX)) {
+                        attributes.put(file, Files.readAttributes(file, BasicFileAttributes.class));
+                        files.add(file);
+                    } else {
+                        // A temporary file left behind by a crash during a write.
+                        Files.deleteIfExists(file);
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        files.sort(Comparator.comparing(file -> attributes.get(file).lastModifiedTime()));
+        for (Path file : files) {
+            long size = attributes.get(file).size();
+            sizes.put(directory.relativize(file).toString().replace(File.separatorChar, '/'), size);
+            bytes += size;
+        }
+        this.hits = metrics.counter("huskymaps_disk_cache_hits_total", "Map image disk cache hits.");
+        this.misses = metrics.counter("huskymaps_disk_cache_misses_total", "Map image disk cache misses.");
+        this.evictions = metrics.counter("huskymaps_disk_cache_evictions_total",
+                "Map images evicted from the disk cache.");
+        metrics.gauge("huskymaps_disk_cache_bytes", "Total size of the map image disk cache.", this::bytes);
+        synchronized (this) {
+            evict();
+        }
+    }
+
+    /**
+     * Returns the bytes stored for the key, or null if the key is not present.
+     *
+     * @throws IOException if the file exists but cannot be read.
+     */
+    byte[] get(String key) throws IOException {
+        String name = name(key);
+        synchronized (this) {
+            if (sizes.get(name) == null) {
+                misses.increment();
+                return null;
+            }
+        }
+        Path file = directory.resolve(name);
+        byte[] value;
+        try {
+            value = Files.readAllBytes(file);
+        } catch (NoSuchFileException e) {
+            // Evicted after the index lookup.
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        try {
+            // Keep the recency order across restarts. A failure only makes the entry look older.
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException ignored) {
+        }
+        return value;
+    }
+
+    /**
+     * Stores the bytes for the key, replacing any previous bytes and evicting the least-recently-used files if the
+     * cache is over its size limit. Values larger than the limit are not stored.
+     *
+     * @throws IOException if the file cannot be written.
+     */
+    void put(String key, byte[] value) throws IOException {
+        if (value.length > maxBytes) {
+            return;
+        }
+        String name = name(key);
+        Path file = directory.resolve(name);
+        Files.createDirectories(file.getParent());
+        Path temporary = Files.createTempFile(file.getParent(), null, ".tmp");
+        try {
+            Files.write(temporary, value);
+            synchronized (this) {
+                Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                Long previous = sizes.put(name, (long) value.length);
+                bytes += value.length - (previous == null ? 0 : previous);
+                evict();
+            }
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Returns the total size of all files in bytes.
+     */
+    synchronized long bytes() {
+        return bytes;
+    }
+
+    /**
+     * Deletes least-recently-used files until the cache is within its size limit.
+     */
+    private void evict() throws IOException {
+        Iterator<Map.Entry<String, Long>> eldest = sizes.entrySet().iterator();
+        while (bytes > maxBytes && eldest.hasNext()) {
+            Map.Entry<String, Long> entry = eldest.next();
+            Files.deleteIfExists(directory.resolve(entry.getKey()));
+            bytes -= entry.getValue();
+            eldest.remove();
+            evictions.increment();
+        }
+    }
+
+    /**
+     * Returns the path relative to the directory that stores the key.
+     */
+    private static String name(String key) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(hash.length * 2 + 1);
+            for (byte b : hash) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+                if (hex.length() == 2) {
+                    hex.append('/');
+                }
+            }
+            return hex.append(SUFFIX).toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError("SHA-256 is required on every Java platform", e);
+        }
+    }
+}
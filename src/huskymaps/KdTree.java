@@ -0,0 +1,295 @@
+package huskymaps;
+
+import org.locationtech.spatial4j.context.SpatialContext;
+import org.locationtech.spatial4j.shape.Point;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Static 2-d tree over an array of {@link Point} locations for nearest and k-nearest neighbor queries. Distances are
+ * computed with {@link SpatialContext#calcDistance(Point, Point)}, and ties are broken by the lower array index, so
+ * results are identical to a linear scan over the array.
+ *
+ * @see MapGraph
+ */
+public final class KdTree {
+    /**
+     * Relative slack subtracted from pruning bounds to absorb floating-point differences between the bound formulas
+     * and {@link SpatialContext#calcDistance(Point, Point)}.
+     */
+    private static final double SLACK = 1e-9;
+    private final SpatialContext context;
+    private final Point[] points;
+    /**
+     * Array indices of the points in tree order: the subtree over [lo, hi) is rooted at the midpoint, and splits on
+     * latitude at even depths and longitude at odd depths.
+     */
+    private final int[] order;
+    private final double[] lats;
+    private final double[] lons;
+
+    /**
+     * Constructs a tree over the given locations. The array is not copied and must not be modified.
+     *
+     * @param points  the locations to index.
+     * @param context the spatial context for computing distances.
+     */
+    public KdTree(Point[] points, SpatialContext context) {
+        this.context = context;
+        this.points = points;
+        this.order = new int[points.length];
+        this.lats = new double[points.length];
+        this.lons = new double[points.length];
+        for (int i = 0; i < points.length; i += 1) {
+            order[i] = i;
+        }
+        build(0, points.length, 0);
+        for (int i = 0; i < points.length; i += 1) {
+            lats[i] = points[order[i]].getLat();
+            lons[i] = points[order[i]].getLon();
+        }
+    }
+
+    /**
+     * Returns the number of indexed locations.
+     *
+     * @return the number of indexed locations.
+     */
+    public int size() {
+        return points.length;
+    }
+
+    /**
+     * Returns the location at the given array index.
+     *
+     * @param index an array index.
+     * @return the location at the given array index.
+     */
+    public Point point(int index) {
+        return points[index];
+    }
+
+    /**
+     * Returns the array index of the location closest to the target.
+     *
+     * @param target the target location.
+     * @return the array index of the location closest to the target.
+     * @throws NoSuchElementException if there are no locations.
+     */
+    public int nearest(Point target) {
+        if (points.length == 0) {
+            throw new NoSuchElementException("No locations");
+        }
+        Neighbors best = new Neighbors(1);
+        search(target, 0, points.length, 0, best);
+        return best.sorted()[0];
+    }
+
+    /**
+     * Returns the array indices of the k locations closest to the target, ordered by increasing distance.
+     *
+     * @param target the target location.
+     * @param k      the maximum number of locations to return.
+     * @return the array indices of up to k locations closest to the target.
+     */
+    public int[] nearest(Point target, int k) {
+        Neighbors best = new Neighbors(Math.max(0, Math.min(k, points.length)));
+        if (best.capacity() > 0) {
+            search(target, 0, points.length, 0, best);
+        }
+        return best.sorted();
+    }
+
+    /**
+     * Arranges the order array over [lo, hi) into a subtree that splits at the given depth.
+     */
+    private void build(int lo, int hi, int depth) {
+        if (hi - lo <= 1) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        select(lo, hi - 1, mid, depth % 2 == 0);
+        build(lo, mid, depth + 1);
+        build(mid + 1, hi, depth + 1);
+    }
+
+    /**
+     * Partially sorts the order array over [lo, hi] so that the element at k is in its sorted position.
+     */
+    private void select(int lo, int hi, int k, boolean byLat) {
+        while (lo < hi) {
+            double pivot = coordinate(order[(lo + hi) >>> 1], byLat);
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (coordinate(order[i], byLat) < pivot) {
+                    i += 1;
+                }
+                while (coordinate(order[j], byLat) > pivot) {
+                    j -= 1;
+                }
+                if (i <= j) {
+                    int temp = order[i];
+                    order[i] = order[j];
+                    order[j] = temp;
+                    i += 1;
+                    j -= 1;
+                }
+            }
+            if (k <= j) {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private double coordinate(int index, boolean byLat) {
+        return byLat ? points[index].getLat() : points[index].getLon();
+    }
+
+    /**
+     * Visits the subtree over [lo, hi), nearer side first, skipping the farther side when no location in it can
+     * improve on the current best.
+     */
+    private void search(Point target, int lo, int hi, int depth, Neighbors best) {
+        if (lo >= hi) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        best.offer(order[mid], context.calcDistance(target, points[order[mid]]));
+        boolean byLat = depth % 2 == 0;
+        double split = byLat ? lats[mid] : lons[mid];
+        double delta = (byLat ? target.getLat() : target.getLon()) - split;
+        if (delta < 0) {
+            search(target, lo, mid, depth + 1, best);
+            if (bound(target, split, byLat) <= best.worst()) {
+                search(target, mid + 1, hi, depth + 1, best);
+            }
+        } else {
+            search(target, mid + 1, hi, depth + 1, best);
+            if (bound(target, split, byLat) <= best.worst()) {
+                search(target, lo, mid, depth + 1, best);
+            }
+        }
+    }
+
+    /**
+     * Returns a lower bound on the distance from the target to any location on the other side of the split.
+     */
+    private double bound(Point target, double split, boolean byLat) {
+        double delta = Math.abs((byLat ? target.getLat() : target.getLon()) - split);
+        double bound;
+        if (!context.isGeo() || byLat) {
+            // Moving along a meridian or a cartesian axis is the shortest way to change one coordinate.
+            bound = delta;
+        } else if (delta >= 90) {
+            bound = 0;
+        } else {
+            // Distance from the target to the great circle through the poles at the split longitude.
+            bound = Math.toDegrees(Math.asin(
+                    Math.cos(Math.toRadians(target.getLat())) * Math.sin(Math.toRadians(delta))
+            ));
+        }
+        return bound * (1 - SLACK);
+    }
+
+    /**
+     * Bounded max-heap of the closest array indices seen so far, with the farthest at the root so that each offer
+     * takes logarithmic time in the capacity. Farther means a greater distance, or an equal distance and a greater
+     * index.
+     */
+    private static class Neighbors {
+        private final int[] indices;
+        private final double[] distances;
+        private int size;
+
+        Neighbors(int capacity) {
+            this.indices = new int[capacity];
+            this.distances = new double[capacity];
+            this.size = 0;
+        }
+
+        int capacity() {
+            return indices.length;
+        }
+
+        /**
+         * Returns the distance that a new index must match or beat to be kept.
+         */
+        double worst() {
+            return size < indices.length ? Double.POSITIVE_INFINITY : distances[0];
+        }
+
+        void offer(int index, double distance) {
+            if (size < indices.length) {
+                indices[size] = index;
+                distances[size] = distance;
+                size += 1;
+                siftUp(size - 1);
+            } else if (farther(distances[0], indices[0], distance, index)) {
+                indices[0] = index;
+                distances[0] = distance;
+                siftDown(0, size);
+            }
+        }
+
+        /**
+         * Returns the kept indices ordered by distance and then by index. The heap is sorted in place, so no more
+         * indices may be offered afterwards.
+         */
+        int[] sorted() {
+            for (int end = size - 1; end > 0; end -= 1) {
+                swap(0, end);
+                siftDown(0, end);
+            }
+            return size == indices.length ? indices : Arrays.copyOf(indices, size);
+        }
+
+        private void siftUp(int i) {
+            while (i > 0) {
+                int parent = (i - 1) / 2;
+                if (!farther(distances[i], indices[i], distances[parent], indices[parent])) {
+                    return;
+                }
+                swap(i, parent);
+                i = parent;
+            }
+        }
+
+        /**
+         * Restores the heap order below i among the first n entries.
+         */
+        private void siftDown(int i, int n) {
+            while (2 * i + 1 < n) {
+                int child = 2 * i + 1;
+                if (child + 1 < n && farther(distances[child + 1], indices[child + 1], distances[child],
+                        indices[child])) {
+                    child += 1;
+                }
+                if (!farther(distances[child], indices[child], distances[i], indices[i])) {
+                    return;
+                }
+                swap(i, child);
+                i = child;
+            }
+        }
+
+        private void swap(int i, int j) {
+            int index = indices[i];
+            indices[i] = indices[j];
+            indices[j] = index;
+            double distance = distances[i];
+            distances[i] = distances[j];
+            distances[j] = distance;
+        }
+
+        private static boolean farther(double distance, int index, double otherDistance, int otherIndex) {
+            int cmp = Double.compare(distance, otherDistance);
+            return cmp > 0 || (cmp == 0 && index > otherIndex);
+        }
+    }
+}
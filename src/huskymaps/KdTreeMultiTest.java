@@ -0,0 +1,95 @@
+package huskymaps;
+
+import org.locationtech.spatial4j.context.SpatialContext;
+import org.locationtech.spatial4j.shape.Point;
+
+import java.util.*;
+
+/**
+ * Compare {@link KdTree} nearest and k-nearest queries against a linear scan to check that they compute the same
+ * values. Points and targets are drawn from a small grid so that the data includes duplicate points and exact ties in
+ * distance, which the tree must break by the lower array index just like the scan.
+ *
+ * @see KdTree
+ */
+class KdTreeMultiTest {
+    /**
+     * Seed for the random number generator, so that failures can be reproduced.
+     */
+    private static final long SEED = 373;
+    /**
+     * Number of random point sets to test.
+     */
+    private static final int TRIALS = 200;
+    /**
+     * Number of target locations to query per point set.
+     */
+    private static final int QUERIES = 50;
+    /**
+     * Number of grid cells along each axis, small enough that many points share a cell.
+     */
+    private static final int GRID = 16;
+    /**
+     * Distance in degrees between neighboring grid cells.
+     */
+    private static final double SPACING = 0.001;
+
+    /**
+     * Returns a random location on the grid near Seattle.
+     */
+    private static Point random(Random random, SpatialContext context) {
+        double lat = 47.6 + random.nextInt(GRID) * SPACING;
+        double lon = -122.3 + random.nextInt(GRID) * SPACING;
+        return context.getShapeFactory().pointLatLon(lat, lon);
+    }
+
+    /**
+     * Returns the array indices of the k locations closest to the target by scanning every location, ordered by
+     * distance and then by index.
+     */
+    private static int[] scan(Point[] points, Point target, int k, SpatialContext context) {
+        Integer[] indices = new Integer[points.length];
+        for (int i = 0; i < points.length; i += 1) {
+            indices[i] = i;
+        }
+        Arrays.sort(indices, Comparator.<Integer>comparingDouble(i -> context.calcDistance(target, points[i]))
+                .thenComparingInt(i -> i));
+        int[] result = new int[Math.max(0, Math.min(k, points.length))];
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] = indices[i];
+        }
+        return result;
+    }
+
+    public static void main(String[] args) {
+        SpatialContext context = SpatialContext.GEO;
+        Random random = new Random(SEED);
+        int failures = 0;
+        for (int trial = 0; trial < TRIALS; trial += 1) {
+            Point[] points = new Point[1 + random.nextInt(300)];
+            for (int i = 0; i < points.length; i += 1) {
+                // Repeat an earlier point a quarter of the time.
+                points[i] = i > 0 && random.nextInt(4) == 0 ? points[random.nextInt(i)] : random(random, context);
+            }
+            KdTree tree = new KdTree(points, context);
+            for (int query = 0; query < QUERIES; query += 1) {
+                Point target = random(random, context);
+                int k = random.nextInt(points.length + 2);
+                int[] expected = scan(points, target, k, context);
+                int[] actual = tree.nearest(target, k);
+                if (!Arrays.equals(expected, actual)) {
+                    failures += 1;
+                    System.out.println("nearest(" + target + ", " + k + ") FAIL!");
+                    System.out.println("  expected " + Arrays.toString(expected));
+                    System.out.println("  actual   " + Arrays.toString(actual));
+                }
+                int nearest = tree.nearest(target);
+                if (nearest != scan(points, target, 1, context)[0]) {
+                    failures += 1;
+                    System.out.println("nearest(" + target + ") FAIL!");
+                }
+            }
+        }
+        System.out.println("KdTree " + (failures == 0 ? "PASS!" : "FAIL! (" + failures + " queries)"));
+    }
+}
@@ -0,0 +1,75 @@
+package huskymaps;
+
+import graphs.shortestpaths.IntAStarSolver;
+import graphs.shortestpaths.LandmarkGraph;
+import graphs.shortestpaths.SearchOptions;
+import org.locationtech.spatial4j.context.SpatialContext;
+import org.locationtech.spatial4j.shape.Point;
+
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Run random route queries with and without the {@link LandmarkGraph} heuristic and save a CSV file recording the
+ * number of vertices settled by each query.
+ */
+class LandmarkExperiments {
+    /**
+     * Number of landmarks to select.
+     */
+    private static final int NUM_LANDMARKS = 8;
+    /**
+     * Number of random start and goal pairs to route.
+     */
+    private static final int NUM_TRIALS = 1000;
+    /**
+     * Path to the output CSV file.
+     */
+    private static final String PATH = "landmarks.csv";
+
+    public static void main(String[] args) throws Exception {
+        MapGraph map = load();
+        long buildStart = System.nanoTime();
+        LandmarkGraph<Point> landmarks = new LandmarkGraph<>(map, map::vertex, NUM_LANDMARKS);
+        long buildTime = System.nanoTime() - buildStart;
+        System.out.printf("%d landmarks selected in %.3f seconds%n", NUM_LANDMARKS, buildTime / 1e9);
+
+        PrintStream out = new PrintStream(PATH);
+        out.println("start,goal,settled,landmarkSettled,reduction");
+        Random random = new Random(373);
+        long totalSettled = 0;
+        long totalLandmarkSettled = 0;
+        for (int i = 0; i < NUM_TRIALS; i += 1) {
+            int start = random.nextInt(map.size());
+            int goal = random.nextInt(map.size());
+            // Both searches stop once the goal is settled, so the counts measure the heuristic and not the budget.
+            IntAStarSolver plain = new IntAStarSolver(map, start, goal, SearchOptions.STOP_AT_GOAL);
+            IntAStarSolver alt = new IntAStarSolver(landmarks, start, goal, SearchOptions.STOP_AT_GOAL);
+            if (Math.abs(plain.distance() - alt.distance()) > 1e-9 * Math.max(1.0, plain.distance())) {
+                throw new AssertionError("Distances differ from " + start + " to " + goal);
+            }
+            int reduction = plain.settled() - alt.settled();
+            out.println(start + "," + goal + "," + plain.settled() + "," + alt.settled() + "," + reduction);
+            totalSettled += plain.settled();
+            totalLandmarkSettled += alt.settled();
+        }
+        out.close();
+        System.out.printf("Average settled: %.1f without landmarks, %.1f with landmarks (%.1f%% fewer)%n",
+                (double) totalSettled / NUM_TRIALS,
+                (double) totalLandmarkSettled / NUM_TRIALS,
+                100.0 * (totalSettled - totalLandmarkSettled) / Math.max(1, totalSettled));
+    }
+
+    /**
+     * Returns the map from the prebuilt snapshot if there is one, otherwise by parsing the OSM and places files.
+     */
+    private static MapGraph load() throws Exception {
+        SpatialContext context = SpatialContext.GEO;
+        if (Files.isReadable(Path.of(MapSnapshot.SNAPSHOT_PATH))) {
+            return MapSnapshot.read(Path.of(MapSnapshot.SNAPSHOT_PATH), context);
+        }
+        return new MapGraph("data/huskymaps/seattle-small.osm.gz", "data/huskymaps/places.tsv.gz", context);
+    }
+}
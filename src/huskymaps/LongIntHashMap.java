@@ -0,0 +1,97 @@
+package huskymaps;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash map from {@code long} keys to non-negative {@code int} values that stores both in primitive
+ * arrays, so lookups and insertions never box or allocate except when growing. {@link Long#MIN_VALUE} is reserved.
+ *
+ * @see OsmParser
+ */
+final class LongIntHashMap {
+    private static final long EMPTY = Long.MIN_VALUE;
+    private static final double MAX_LOAD = 0.6;
+    private long[] keys;
+    private int[] values;
+    private int size;
+
+    /**
+     * Constructs an empty map.
+     */
+    LongIntHashMap() {
+        keys = new long[16];
+        values = new int[16];
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+    }
+
+    /**
+     * Returns the value associated with the key, or -1 if the key is not present.
+     */
+    int get(long key) {
+        int mask = keys.length - 1;
+        for (int i = hash(key) & mask; keys[i] != EMPTY; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return values[i];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Associates the key with the value unless the key is already present.
+     *
+     * @return the existing value associated with the key, or the given value if the key was added.
+     * @throws IllegalArgumentException if the key is reserved or the value is negative.
+     */
+    int putIfAbsent(long key, int value) {
+        if (key == EMPTY || value < 0) {
+            throw new IllegalArgumentException("Cannot put " + key + " = " + value);
+        }
+        int mask = keys.length - 1;
+        int i = hash(key) & mask;
+        for (; keys[i] != EMPTY; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return values[i];
+            }
+        }
+        keys[i] = key;
+        values[i] = value;
+        size += 1;
+        if (size > keys.length * MAX_LOAD) {
+            grow();
+        }
+        return value;
+    }
+
+    /**
+     * Returns the number of keys in this map.
+     */
+    int size() {
+        return size;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[oldKeys.length * 2];
+        values = new int[oldValues.length * 2];
+        Arrays.fill(keys, EMPTY);
+        int mask = keys.length - 1;
+        for (int j = 0; j < oldKeys.length; j += 1) {
+            if (oldKeys[j] != EMPTY) {
+                int i = hash(oldKeys[j]) & mask;
+                while (keys[i] != EMPTY) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -1,38 +1,46 @@
 package huskymaps;
 
-import autocomplete.Autocomplete;
-import autocomplete.TreeSetAutocomplete;
+import autocomplete.WeightedAutocomplete;
 import graphs.AStarGraph;
+import graphs.CSRGraph;
 import graphs.Edge;
+import graphs.IntAStarGraph;
 import org.locationtech.spatial4j.context.SpatialContext;
 import org.locationtech.spatial4j.shape.Point;
-import org.xml.sax.Attributes;
-import org.xml.sax.SAXException;
-import org.xml.sax.helpers.DefaultHandler;
 
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.parsers.SAXParser;
-import javax.xml.parsers.SAXParserFactory;
+import javax.xml.stream.XMLStreamException;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.DoubleBuffer;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.zip.GZIPInputStream;
 
 /**
- * {@link AStarGraph} of places as {@link Point} vertices and streets edges weighted by physical distance.
+ * {@link AStarGraph} of places as {@link Point} vertices and streets edges weighted by physical distance. The road
+ * network is stored as an immutable {@link CSRGraph} over dense vertex ids, which is also exposed directly through
+ * the {@link IntAStarGraph} interface so that solvers can search it without allocating.
  *
  * @see AStarGraph
+ * @see IntAStarGraph
  * @see MapServer
  */
-public class MapGraph implements AStarGraph<Point> {
+public class MapGraph implements AStarGraph<Point>, IntAStarGraph {
     private final String osmPath;
     private final String placesPath;
     private final SpatialContext context;
-    private final Map<Point, Set<Edge<Point>>> neighbors;
+    private final CSRGraph roads;
+    private final Point[] vertices;
+    private final DoubleBuffer lats;
+    private final DoubleBuffer lons;
+    private final Map<Point, Integer> ids;
+    private final KdTree index;
     private final Map<String, List<Point>> locations;
-    private final Autocomplete autocomplete;
+    private final Map<String, KdTree> placeIndex;
+    private final WeightedAutocomplete autocomplete;
     private final Map<CharSequence, Integer> importance;
 
     /**
@@ -40,49 +48,189 @@ public class MapGraph implements AStarGraph<Point> {
      *
      * @param osmPath    The path to a gzipped OSM (XML) file.
      * @param placesPath The path to a gzipped TSV file representing places and importance.
-     * @throws ParserConfigurationException if a parser cannot be created.
-     * @throws SAXException                 for SAX errors.
-     * @throws IOException                  if a file is not found or if the file is not gzipped.
+     * @throws XMLStreamException for XML errors.
+     * @throws IOException        if a file is not found or if the file is not gzipped.
      */
     public MapGraph(String osmPath, String placesPath, SpatialContext context)
-            throws ParserConfigurationException, SAXException, IOException {
+            throws XMLStreamException, IOException {
+        this(osmPath, placesPath, context, parseRoads(osmPath, context), parseImportance(placesPath));
+    }
+
+    private MapGraph(String osmPath, String placesPath, SpatialContext context, OsmParser parser,
+                     Map<CharSequence, Integer> importance) {
+        this(osmPath, placesPath, context, parser.roads, parser.vertices, parser.byName, importance);
+    }
+
+    /**
+     * Constructs a new street map graph from an already-built road network and places.
+     *
+     * @param osmPath    The path to the OSM file that the road network was built from.
+     * @param placesPath The path to the places TSV that the importance values were read from.
+     * @param context    The spatial context for computing distances.
+     * @param roads      The road network over dense vertex ids.
+     * @param vertices   The location of each vertex id.
+     * @param locations  The locations of each place name.
+     * @param importance The importance of each place name.
+     */
+    MapGraph(String osmPath, String placesPath, SpatialContext context, CSRGraph roads, Point[] vertices,
+             Map<String, List<Point>> locations, Map<CharSequence, Integer> importance) {
+        this(osmPath, placesPath, context, roads, vertices, coordinates(vertices, true), coordinates(vertices, false),
+                locations, importance);
+    }
+
+    /**
+     * Constructs a new street map graph from an already-built road network whose vertex coordinates are read through
+     * the given buffers, such as views over a memory-mapped snapshot.
+     *
+     * @param osmPath    The path to the OSM file that the road network was built from.
+     * @param placesPath The path to the places TSV that the importance values were read from.
+     * @param context    The spatial context for computing distances.
+     * @param roads      The road network over dense vertex ids.
+     * @param vertices   The location of each vertex id.
+     * @param lats       The latitude of each vertex id.
+     * @param lons       The longitude of each vertex id.
+     * @param locations  The locations of each place name.
+     * @param importance The importance of each place name.
+     */
+    MapGraph(String osmPath, String placesPath, SpatialContext context, CSRGraph roads, Point[] vertices,
+             DoubleBuffer lats, DoubleBuffer lons, Map<String, List<Point>> locations,
+             Map<CharSequence, Integer> importance) {
+        this(osmPath, placesPath, context, roads, vertices, lats, lons, ids(vertices), new KdTree(vertices, context),
+                locations, autocomplete(locations, importance), importance);
+    }
+
+    private MapGraph(String osmPath, String placesPath, SpatialContext context, CSRGraph roads, Point[] vertices,
+                     DoubleBuffer lats, DoubleBuffer lons, Map<Point, Integer> ids, KdTree index,
+                     Map<String, List<Point>> locations, WeightedAutocomplete autocomplete,
+                     Map<CharSequence, Integer> importance) {
         this.osmPath = osmPath;
         this.placesPath = placesPath;
         this.context = context;
 
-        // Parse the OpenStreetMap (OSM) data using the SAXParser XML tree walker.
-        neighbors = new HashMap<>();
-        Handler handler = new Handler(Set.of(
-                "motorway",
-                "trunk",
-                "primary",
-                "secondary",
-                "tertiary",
-                "unclassified",
-                "residential",
-                "living_street",
-                "motorway_link",
-                "trunk_link",
-                "primary_link",
-                "secondary_link",
-                "tertiary_link"
-        ));
-        SAXParser saxParser = SAXParserFactory.newInstance().newSAXParser();
-        saxParser.parse(new GZIPInputStream(fileStream(osmPath)), handler);
+        // Index the road network vertices by id, location, and coordinates.
+        this.roads = roads;
+        this.vertices = vertices;
+        this.lats = lats;
+        this.lons = lons;
+        this.ids = ids;
+        this.index = index;
 
         // Add reachable locations to the Autocomplete engine.
-        locations = handler.byName;
-        autocomplete = new TreeSetAutocomplete();
-        autocomplete.addAll(locations.keySet());
+        this.locations = locations;
+        // Each name's k-d tree is built on its first lookup, so unpopular names cost nothing.
+        placeIndex = new ConcurrentHashMap<>();
+        this.autocomplete = autocomplete;
+        this.importance = importance;
+    }
+
+    /**
+     * Adds the stages that construct a street map graph to the startup pipeline. The OSM and places files are parsed
+     * concurrently, and the vertex ids, the k-d tree, and the autocomplete index are then built concurrently from
+     * them.
+     *
+     * @param osmPath    The path to a gzipped OSM (XML) file.
+     * @param placesPath The path to a gzipped TSV file representing places and importance.
+     * @param context    The spatial context for computing distances.
+     * @param startup    The pipeline to add the stages to.
+     * @return a future that completes with the graph once every stage is done.
+     */
+    static CompletableFuture<MapGraph> load(String osmPath, String placesPath, SpatialContext context,
+                                            Startup startup) {
+        CompletableFuture<OsmParser> parsed = startup.stage("parse roads", () -> parseRoads(osmPath, context));
+        CompletableFuture<Map<CharSequence, Integer>> importance = startup.stage(
+                "parse places", () -> parseImportance(placesPath)
+        );
+        CompletableFuture<Map<Point, Integer>> ids = startup.stage(
+                "index vertices", () -> ids(parsed.join().vertices), parsed
+        );
+        CompletableFuture<KdTree> index = startup.stage(
+                "build k-d tree", () -> new KdTree(parsed.join().vertices, context), parsed
+        );
+        CompletableFuture<WeightedAutocomplete> autocomplete = startup.stage(
+                "build autocomplete", () -> autocomplete(parsed.join().byName, importance.join()), parsed, importance
+        );
+        return startup.stage("assemble graph", () -> {
+            OsmParser parser = parsed.join();
+            return new MapGraph(osmPath, placesPath, context, parser.roads, parser.vertices,
+                    coordinates(parser.vertices, true), coordinates(parser.vertices, false), ids.join(), index.join(),
+                    parser.byName, autocomplete.join(), importance.join());
+        }, ids, index, autocomplete);
+    }
+
+    /**
+     * Returns the id of each vertex by its location. The parser merges nodes at the same location into one vertex, so
+     * each location identifies exactly one vertex.
+     *
+     * @param vertices The location of each vertex id, all distinct.
+     * @return a map of each vertex location to its id.
+     */
+    private static Map<Point, Integer> ids(Point[] vertices) {
+        Map<Point, Integer> ids = new HashMap<>();
+        for (int v = 0; v < vertices.length; v += 1) {
+            ids.put(vertices[v], v);
+        }
+        return ids;
+    }
+
+    /**
+     * Returns the latitude or longitude of each vertex.
+     *
+     * @param vertices The location of each vertex id.
+     * @param lat      Whether to return latitudes rather than longitudes.
+     * @return a buffer over the coordinate of each vertex id.
+     */
+    private static DoubleBuffer coordinates(Point[] vertices, boolean lat) {
+        double[] result = new double[vertices.length];
+        for (int v = 0; v < vertices.length; v += 1) {
+            result[v] = lat ? vertices[v].getLat() : vertices[v].getLon();
+        }
+        return DoubleBuffer.wrap(result);
+    }
 
-        // Parse the place-importance data.
-        importance = new HashMap<>();
+    /**
+     * Returns the autocomplete engine over the place names, ranked by importance.
+     *
+     * @param locations  The locations of each place name.
+     * @param importance The importance of each place name.
+     * @return the autocomplete engine.
+     */
+    private static WeightedAutocomplete autocomplete(Map<String, List<Point>> locations,
+                                                     Map<CharSequence, Integer> importance) {
+        // Lower importance values rank first, so names without an importance value rank after all others.
+        return new WeightedAutocomplete(
+                locations.keySet(), name -> importance.getOrDefault(name, WeightedAutocomplete.UNWEIGHTED)
+        );
+    }
+
+    /**
+     * Parses the OpenStreetMap (OSM) data using the streaming {@link OsmParser}.
+     *
+     * @param osmPath The path to a gzipped OSM (XML) file.
+     * @param context The spatial context for computing distances.
+     * @return the parser containing the road network and places.
+     */
+    private static OsmParser parseRoads(String osmPath, SpatialContext context)
+            throws XMLStreamException, IOException {
+        OsmParser parser = new OsmParser(context, OsmParser.HIGHWAY_TYPES);
+        parser.parse(osmPath);
+        return parser;
+    }
+
+    /**
+     * Parses the place-importance data.
+     *
+     * @param placesPath The path to a gzipped TSV file representing places and importance.
+     * @return a map of each place name to its importance.
+     */
+    private static Map<CharSequence, Integer> parseImportance(String placesPath) throws IOException {
+        Map<CharSequence, Integer> importance = new HashMap<>();
         try (Scanner input = new Scanner(new GZIPInputStream(fileStream(placesPath)))) {
             while (input.hasNextLine()) {
                 Scanner line = new Scanner(input.nextLine()).useDelimiter("\t");
                 importance.put(line.next(), line.nextInt());
             }
         }
+        return importance;
     }
 
     /**
@@ -92,7 +240,7 @@ public class MapGraph implements AStarGraph<Point> {
      * @return an input stream with the contents of the specified file.
      * @throws FileNotFoundException if there is no file at the specified path.
      */
-    private static InputStream fileStream(String path) throws FileNotFoundException {
+    static InputStream fileStream(String path) throws FileNotFoundException {
         if (System.getenv("PORT") == null) {
             return new FileInputStream(path);
         }
@@ -103,12 +251,26 @@ public class MapGraph implements AStarGraph<Point> {
      * Returns the location closest to the given target location.
      *
      * @param target the target location.
-     * @return the id of the location closest to the target.
+     * @return the location closest to the target.
+     * @throws NoSuchElementException if this graph has no vertices.
      */
     public Point closest(Point target) {
-        return Collections.min(neighbors.keySet(), Comparator.comparingDouble(
-                location -> context.calcDistance(target, location)
-        ));
+        return vertices[index.nearest(target)];
+    }
+
+    /**
+     * Returns up to k locations closest to the given target location, ordered by increasing distance.
+     *
+     * @param target the target location.
+     * @param k      the maximum number of locations to return.
+     * @return a list of up to k locations closest to the target.
+     */
+    public List<Point> closest(Point target, int k) {
+        List<Point> result = new ArrayList<>(k);
+        for (int vertex : index.nearest(target, k)) {
+            result.add(vertices[vertex]);
+        }
+        return result;
     }
 
     /**
@@ -118,29 +280,105 @@ public class MapGraph implements AStarGraph<Point> {
      * @return a list of full names of locations matching the prefix.
      */
     public List<CharSequence> getLocationsByPrefix(String prefix) {
-        List<CharSequence> result = autocomplete.allMatches(prefix);
-        result.sort(Comparator.comparingInt(importance::get));
-        return result;
+        return getLocationsByPrefix(prefix, Integer.MAX_VALUE);
     }
 
     /**
-     * Return all locations that match a valid location name.
+     * Return the names of up to k locations that prefix-match the query string, ordered by importance.
+     *
+     * @param prefix prefix string that could be any case with or without punctuation.
+     * @param k      the maximum number of names to return.
+     * @return a list of up to k full names of locations matching the prefix.
+     */
+    public List<CharSequence> getLocationsByPrefix(String prefix, int k) {
+        return autocomplete.topMatches(prefix, k);
+    }
+
+    /**
+     * Return all locations that match a valid location name, ordered by distance to the center.
      *
      * @param locationName a full name of a valid location.
+     * @param center       the location to order matches by.
      * @return a list of locations whose name matches the location name.
      */
     public List<Point> getLocations(String locationName, Point center) {
+        return getLocations(locationName, center, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Return the k locations closest to the center that match a valid location name, ordered by distance.
+     *
+     * @param locationName a full name of a valid location.
+     * @param center       the location to order matches by.
+     * @param k            the maximum number of locations to return.
+     * @return a list of up to k locations whose name matches the location name.
+     */
+    public List<Point> getLocations(String locationName, Point center, int k) {
         if (locationName == null || !locations.containsKey(locationName)) {
             return List.of();
         }
-        List<Point> result = new ArrayList<>(locations.get(locationName));
-        result.sort(Comparator.comparingDouble(location -> context.calcDistance(center, location)));
+        KdTree tree = placeIndex.computeIfAbsent(
+                locationName, name -> new KdTree(locations.get(name).toArray(new Point[0]), context)
+        );
+        int[] nearest = tree.nearest(center, k);
+        List<Point> result = new ArrayList<>(nearest.length);
+        for (int i : nearest) {
+            result.add(tree.point(i));
+        }
         return result;
     }
 
+    /**
+     * Returns the vertex id of the given location.
+     *
+     * @param location a location in this graph.
+     * @return the vertex id of the given location, or -1 if the location is not a vertex in this graph.
+     */
+    public int vertex(Point location) {
+        return ids.getOrDefault(location, -1);
+    }
+
+    /**
+     * Returns the location of the given vertex id.
+     *
+     * @param vertex a vertex id.
+     * @return the location of the given vertex id.
+     */
+    public Point location(int vertex) {
+        return vertices[vertex];
+    }
+
+    /**
+     * Returns the latitude of the given vertex id.
+     *
+     * @param vertex a vertex id.
+     * @return the latitude of the given vertex id.
+     */
+    public double lat(int vertex) {
+        return lats.get(vertex);
+    }
+
+    /**
+     * Returns the longitude of the given vertex id.
+     *
+     * @param vertex a vertex id.
+     * @return the longitude of the given vertex id.
+     */
+    public double lon(int vertex) {
+        return lons.get(vertex);
+    }
+
     @Override
     public List<Edge<Point>> neighbors(Point v) {
-        return new ArrayList<>(neighbors.getOrDefault(v, Set.of()));
+        int from = vertex(v);
+        if (from == -1) {
+            return new ArrayList<>();
+        }
+        List<Edge<Point>> result = new ArrayList<>(endEdge(from) - firstEdge(from));
+        for (int e = firstEdge(from); e < endEdge(from); e += 1) {
+            result.add(new Edge<>(v, vertices[target(e)], weight(e)));
+        }
+        return result;
     }
 
     @Override
@@ -149,130 +387,69 @@ public class MapGraph implements AStarGraph<Point> {
     }
 
     @Override
-    public String toString() {
-        return "MapGraph{" +
-                "osmPath='" + osmPath + '\'' +
-                ", placesPath='" + placesPath + '\'' +
-                ", context='" + context + '\'' +
-                '}';
+    public int size() {
+        return roads.size();
+    }
+
+    @Override
+    public int firstEdge(int vertex) {
+        return roads.firstEdge(vertex);
+    }
+
+    @Override
+    public int endEdge(int vertex) {
+        return roads.endEdge(vertex);
+    }
+
+    @Override
+    public int target(int edge) {
+        return roads.target(edge);
+    }
+
+    @Override
+    public double weight(int edge) {
+        return roads.weight(edge);
+    }
+
+    @Override
+    public double estimatedDistance(int start, int end) {
+        return context.calcDistance(vertices[start], vertices[end]);
     }
 
     /**
-     * Adds an edge to this graph if it doesn't already exist, using distance as the weight.
+     * Returns the path to the OSM file that this graph was built from.
      */
-    private void addEdge(Point from, Point to) {
-        if (!neighbors.containsKey(from)) {
-            neighbors.put(from, new HashSet<>());
-        }
-        neighbors.get(from).add(new Edge<>(from, to, estimatedDistance(from, to)));
+    String osmPath() {
+        return osmPath;
     }
 
     /**
-     * Parses OSM XML files to construct a StreetMapGraph.
+     * Returns the path to the places TSV that the importance values were read from.
      */
-    private class Handler extends DefaultHandler {
-        private final Set<String> allowedHighwayTypes;
-        private final Map<Long, Point> byId;
-        private final Map<String, List<Point>> byName;
-        private String state;
-        private long id;
-        private String name;
-        private boolean validWay;
-        private Point location;
-        private Queue<Point> path;
-
-        Handler(Set<String> allowedHighwayTypes) {
-            this.allowedHighwayTypes = allowedHighwayTypes;
-            this.byId = new HashMap<>();
-            this.byName = new HashMap<>();
-            reset();
-        }
+    String placesPath() {
+        return placesPath;
+    }
 
-        /**
-         * Reset the handler state before processing a new way or node.
-         */
-        private void reset() {
-            state = "";
-            id = Long.MIN_VALUE;
-            name = "";
-            validWay = false;
-            location = null;
-            path = new ArrayDeque<>();
-        }
+    /**
+     * Returns an unmodifiable view of the locations of each place name.
+     */
+    Map<String, List<Point>> locations() {
+        return Collections.unmodifiableMap(locations);
+    }
 
-        /**
-         * Called at the beginning of an element.
-         *
-         * @param uri        The Namespace URI, or the empty string if the element has no Namespace URI or
-         *                   if Namespace processing is not being performed.
-         * @param localName  The local name (without prefix), or the empty string if Namespace
-         *                   processing is not being performed.
-         * @param qName      The qualified name (with prefix), or the empty string if qualified names are
-         *                   not available. This tells us which element we're looking at.
-         * @param attributes The attributes attached to the element. If there are no attributes, it
-         *                   shall be an empty Attributes object.
-         * @see Attributes
-         */
-        @Override
-        public void startElement(String uri, String localName, String qName, Attributes attributes) {
-            if (qName.equals("node")) {
-                state = "node";
-                id = Long.parseLong(attributes.getValue("id"));
-                location = context.getShapeFactory().pointLatLon(
-                        Double.parseDouble(attributes.getValue("lat")),
-                        Double.parseDouble(attributes.getValue("lon"))
-                );
-            } else if (qName.equals("way")) {
-                state = "way";
-            } else if (state.equals("way") && qName.equals("nd")) {
-                long ref = Long.parseLong(attributes.getValue("ref"));
-                path.add(byId.get(ref));
-            } else if (state.equals("way") && qName.equals("tag")) {
-                String k = attributes.getValue("k");
-                String v = attributes.getValue("v");
-                if (k.equals("highway")) {
-                    validWay = allowedHighwayTypes.contains(v);
-                }
-            } else if (state.equals("node") && qName.equals("tag") && attributes.getValue("k").equals("name")) {
-                name = attributes.getValue("v").strip()
-                        .replace('“', '"')
-                        .replace('”', '"')
-                        .replace('‘', '\'')
-                        .replace('’', '\'');
-            }
-        }
+    /**
+     * Returns an unmodifiable view of the importance of each place name.
+     */
+    Map<CharSequence, Integer> importance() {
+        return Collections.unmodifiableMap(importance);
+    }
 
-        /**
-         * Called at the end of an element.
-         *
-         * @param uri       The Namespace URI, or the empty string if the element has no Namespace URI or
-         *                  if Namespace processing is not being performed.
-         * @param localName The local name (without prefix), or the empty string if Namespace
-         *                  processing is not being performed.
-         * @param qName     The qualified name (with prefix), or the empty string if qualified names are
-         *                  not available.
-         */
-        @Override
-        public void endElement(String uri, String localName, String qName) {
-            if (qName.equals("way")) {
-                if (validWay && !path.isEmpty()) {
-                    Point from = path.remove();
-                    while (!path.isEmpty()) {
-                        Point to = path.remove();
-                        addEdge(from, to);
-                        addEdge(to, from);
-                        from = to;
-                    }
-                }
-                reset();
-            } else if (qName.equals("node")) {
-                byId.put(id, location);
-                if (!name.isBlank()) {
-                    byName.putIfAbsent(name, new ArrayList<>());
-                    byName.get(name).add(location);
-                }
-                reset();
-            }
-        }
+    @Override
+    public String toString() {
+        return "MapGraph{" +
+                "osmPath='" + osmPath + '\'' +
+                ", placesPath='" + placesPath + '\'' +
+                ", context='" + context + '\'' +
+                '}';
     }
 }
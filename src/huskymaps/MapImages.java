@@ -0,0 +1,297 @@
+package huskymaps;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Tiered source of map images. Images are served from a {@link SegmentedLruCache} in memory, then
+ * from a {@link DiskCache} that survives restarts, and only then fetched from the upstream API. Concurrent misses for
+ * the same view share one load, and upstream fetches are limited by a {@link Bulkhead}.
+ * <p>
+ * Each image remembers when it was fetched. Images older than the maximum age are stale: within the
+ * stale-while-revalidate window they are still served immediately while a background refresh replaces them, and
+ * within the stale-if-error window they are served when the upstream API fails. This keeps upstream slowness and
+ * outages out of request latency for every view that has been seen before.
+ *
+ * @see MapServer
+ */
+final class MapImages {
+    /**
+     * Size in bytes of the fetch time stored before the image bytes in the disk cache.
+     */
+    private static final int HEADER_BYTES = Long.BYTES;
+    /**
+     * Number of bytes of the SHA-256 hash of an image used in its entity tag.
+     */
+    private static final int ETAG_BYTES = 18;
+
+    private final SegmentedLruCache<String, Image> memory;
+    private final DiskCache disk;
+    private final SingleFlight<String, Image> loads;
+    private final TileFetcher tiles;
+    private final Bulkhead upstream;
+    private final long maxAgeMillis;
+    private final long staleWhileRevalidateMillis;
+    private final long staleIfErrorMillis;
+    private final Executor refresher;
+    /**
+     * The keys with a background refresh scheduled or running, so that each stale view is refreshed once.
+     */
+    private final Set<String> refreshing;
+    private final Metrics.Counter fetches;
+    private final Metrics.Counter staleRevalidated;
+    private final Metrics.Counter staleErrored;
+    private final Metrics.Counter refreshFailures;
+
+    /**
+     * Constructs an instance with an empty memory cache and registers its metrics.
+     *
+     * @param memoryBytes          the maximum size of the memory cache in bytes.
+     * @param disk                 the disk cache, or null to only cache in memory.
+     * @param tiles                the fetcher for upstream images.
+     * @param upstream             the limit on concurrent upstream fetches.
+     * @param maxAge               how long a fetched image stays fresh.
+     * @param staleWhileRevalidate how long after the maximum age a stale image is served while it is refreshed.
+     * @param staleIfError         how long after the maximum age a stale image is served if the upstream API fails.
+     * @param refresher            the executor that runs background refreshes.
+     * @param metrics              the registry to record cache and fetch counters in.
+     */
+    MapImages(long memoryBytes, DiskCache disk, TileFetcher tiles, Bulkhead upstream, Duration maxAge,
+              Duration staleWhileRevalidate, Duration staleIfError, Executor refresher, Metrics metrics) {
+        this.memory = new SegmentedLruCache<>(memoryBytes, image -> image.bytes.length);
+        this.disk = disk;
+        this.loads = new SingleFlight<>();
+        this.tiles = tiles;
+        this.upstream = upstream;
+        this.maxAgeMillis = maxAge.toMillis();
+        this.staleWhileRevalidateMillis = staleWhileRevalidate.toMillis();
+        this.staleIfErrorMillis = staleIfError.toMillis();
+        this.refresher = refresher;
+        this.refreshing = ConcurrentHashMap.newKeySet();
+        this.fetches = metrics.counter("huskymaps_upstream_fetches_total", "Map images fetched from the upstream API.");
+        String staleHelp = "Stale map images served instead of waiting for the upstream API.";
+        this.staleRevalidated = metrics.counter("huskymaps_image_stale_served_total", staleHelp,
+                "reason", "revalidate");
+        this.staleErrored = metrics.counter("huskymaps_image_stale_served_total", staleHelp, "reason", "error");
+        this.refreshFailures = metrics.counter("huskymaps_image_refresh_failures_total",
+                "Background refreshes of stale map images that failed.");
+        metrics.counter("huskymaps_cache_hits_total", "Map image cache hits.", memory::hits);
+        metrics.counter("huskymaps_cache_misses_total", "Map image cache misses.", memory::misses);
+        metrics.counter("huskymaps_cache_evictions_total", "Map images evicted from the cache.", memory::evictions);
+        metrics.gauge("huskymaps_cache_bytes", "Estimated size of the map image cache.", memory::bytes);
+        metrics.gauge("huskymaps_cache_hit_ratio", "Fraction of map image cache lookups that hit.", () -> {
+            double lookups = memory.hits() + memory.misses();
+            return lookups == 0 ? 0.0 : memory.hits() / lookups;
+        });
+        metrics.counter("huskymaps_image_loads_total", "Map image loads from the disk cache or upstream API.",
+                loads::loads);
+        metrics.counter("huskymaps_image_loads_coalesced_total",
+                "Map image cache misses that waited for a concurrent load of the same view.", loads::coalesced);
+        metrics.gauge("huskymaps_image_refreshes_pending", "Background refreshes of stale map images in progress.",
+                refreshing::size);
+    }
+
+    /**
+     * Returns the image for the view if it is in the memory cache and can be served without waiting for the upstream
+     * API, or null if it cannot. A stale image within the stale-while-revalidate window is returned and refreshed in
+     * the background.
+     *
+     * @param key the key of the view.
+     * @param uri the upstream URI of the view, used to refresh a stale image.
+     * @return the cached image, or null.
+     */
+    Image cached(String key, URI uri) {
+        Image image = memory.get(key);
+        return image == null ? null : serve(image, key, uri);
+    }
+
+    /**
+     * Returns the image for the view, loading it from the disk cache or the upstream API and adding it to the caches.
+     * Only successful loads are cached. If the upstream API fails, a stale image within the stale-if-error window is
+     * returned instead.
+     *
+     * @param key the key of the view.
+     * @param uri the upstream URI of the view.
+     * @return the image for the view.
+     * @throws IOException if the image cannot be fetched and there is no stale image to serve instead.
+     */
+    Image load(String key, URI uri) throws IOException {
+        return loads.load(key, () -> {
+            // The memory cache may hold an image that was too stale to serve without revalidating.
+            Image image = memory.peek(key);
+            if (image == null && disk != null) {
+                image = read(disk.get(key));
+                if (image != null) {
+                    memory.put(key, image);
+                }
+            }
+            if (image != null && serve(image, key, uri) != null) {
+                return image;
+            }
+            try {
+                return fetch(key, uri);
+            } catch (IOException | RejectedExecutionException e) {
+                if (image != null && age(image) < maxAgeMillis + staleIfErrorMillis) {
+                    staleErrored.increment();
+                    return image;
+                }
+                throw e;
+            }
+        });
+    }
+
+    /**
+     * Returns the image if it is fresh or within the stale-while-revalidate window, scheduling a refresh for a stale
+     * one, or null if it must be revalidated before it is served.
+     */
+    private Image serve(Image image, String key, URI uri) {
+        long age = age(image);
+        if (age < maxAgeMillis) {
+            return image;
+        }
+        if (age < maxAgeMillis + staleWhileRevalidateMillis) {
+            staleRevalidated.increment();
+            refresh(key, uri);
+            return image;
+        }
+        return null;
+    }
+
+    /**
+     * Schedules a background fetch of the view unless one is already scheduled. Requests for the view keep getting the
+     * stale image from the memory cache until the fetch replaces it.
+     */
+    private void refresh(String key, URI uri) {
+        if (!refreshing.add(key)) {
+            return;
+        }
+        try {
+            refresher.execute(() -> {
+                try {
+                    fetch(key, uri);
+                } catch (IOException | RuntimeException e) {
+                    // The stale image stays cached, so the next request past the maximum age tries again.
+                    refreshFailures.increment();
+                    System.err.println("Could not refresh " + key + ": " + e);
+                } finally {
+                    refreshing.remove(key);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            refreshing.remove(key);
+        }
+    }
+
+    /**
+     * Fetches the view from the upstream API and adds it to both caches.
+     */
+    private Image fetch(String key, URI uri) throws IOException {
+        fetches.increment();
+        byte[] bytes = upstream.call(() -> tiles.fetch(uri));
+        long fetched = System.currentTimeMillis();
+        if (disk != null) {
+            try {
+                disk.put(key, ByteBuffer.allocate(HEADER_BYTES + bytes.length).putLong(fetched).put(bytes).array());
+            } catch (IOException e) {
+                // The image can still be served, so a full or failing disk only costs a later fetch.
+                System.err.println("Could not write " + key + " to the disk cache: " + e);
+            }
+        }
+        // The image bytes are cached as they are, without decoding and re-encoding the image.
+        Image image = new Image(bytes, fetched);
+        memory.put(key, image);
+        return image;
+    }
+
+    /**
+     * Returns the image stored in the disk cache as the fetch time followed by the image bytes, or null if there is
+     * none.
+     */
+    private static Image read(byte[] stored) {
+        if (stored == null || stored.length < HEADER_BYTES) {
+            return null;
+        }
+        long fetched = ByteBuffer.wrap(stored).getLong();
+        return new Image(Arrays.copyOfRange(stored, HEADER_BYTES, stored.length), fetched);
+    }
+
+    /**
+     * Returns the time in milliseconds since the image was fetched.
+     */
+    private static long age(Image image) {
+        return System.currentTimeMillis() - image.fetched;
+    }
+
+    /**
+     * Returns a strong entity tag for the bytes, derived from their SHA-256 hash.
+     *
+     * @param bytes the bytes to tag.
+     * @return the quoted entity tag.
+     */
+    static String etag(byte[] bytes) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(bytes);
+            return '"' + Base64.getUrlEncoder().encodeToString(Arrays.copyOf(hash, ETAG_BYTES)) + '"';
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError("SHA-256 is required on every Java platform", e);
+        }
+    }
+
+    /**
+     * A cached map image, its entity tag, and the time it was fetched from the upstream API.
+     */
+    static final class Image {
+        private final byte[] bytes;
+        private final String etag;
+        private final long fetched;
+
+        /**
+         * Constructs an image, computing its entity tag from the bytes.
+         *
+         * @param bytes   the encoded image bytes.
+         * @param fetched the time of the fetch in milliseconds since the epoch.
+         */
+        Image(byte[] bytes, long fetched) {
+            this.bytes = bytes;
+            this.etag = MapImages.etag(bytes);
+            this.fetched = fetched;
+        }
+
+        /**
+         * Returns the encoded image bytes, which are shared and must not be modified.
+         *
+         * @return the encoded image bytes.
+         */
+        byte[] bytes() {
+            return bytes;
+        }
+
+        /**
+         * Returns the strong entity tag of the image bytes.
+         *
+         * @return the quoted entity tag.
+         */
+        String etag() {
+            return etag;
+        }
+
+        /**
+         * Returns the time the image was fetched from the upstream API.
+         *
+         * @return the time of the fetch in milliseconds since the epoch.
+         */
+        long fetched() {
+            return fetched;
+        }
+    }
+}
@@ -1,7 +1,11 @@
 package huskymaps;
 
-import graphs.shortestpaths.AStarSolver;
+import graphs.shortestpaths.ContractionHierarchy;
 import io.javalin.Javalin;
+import io.javalin.http.Context;
+import io.javalin.http.NotFoundResponse;
+import io.javalin.http.ServiceUnavailableResponse;
+import io.javalin.http.UnauthorizedResponse;
 import io.javalin.core.validation.JavalinValidation;
 import io.javalin.core.validation.Validator;
 import org.locationtech.spatial4j.context.SpatialContext;
@@ -9,14 +13,30 @@ import org.locationtech.spatial4j.shape.Point;
 
 import javax.imageio.ImageIO;
 import java.awt.*;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Path2D;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
-import java.net.MalformedURLException;
-import java.net.URL;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Run the {@code huskymaps} server.
@@ -41,6 +61,10 @@ public class MapServer {
      * Maximum number of autocomplete search results.
      */
     private static final int MAX_MATCHES = 10;
+    /**
+     * Maximum number of location markers drawn on a map, nearest to the center first.
+     */
+    private static final int MAX_MARKERS = 100;
     /**
      * The longitudinal distance per pixel when the map is centered on Seattle.
      */
@@ -49,60 +73,285 @@ public class MapServer {
      * The latitudinal distance per pixel when the map is centered on Seattle.
      */
     private static final double SEATTLE_ROOT_LATDPP = 0.23689728184;
+    /**
+     * Default base URL of the upstream map image API.
+     */
+    private static final String MAPBOX_URL = "https://api.mapbox.com/";
+    /**
+     * Default maximum size of the map image cache in bytes.
+     */
+    private static final long CACHE_BYTES = 64L * 1024 * 1024;
+    /**
+     * Maximum number of route searches that run at once. Searches are CPU-bound, so more than one per core only adds
+     * contention.
+     */
+    private static final int ROUTE_PERMITS = Runtime.getRuntime().availableProcessors();
+    /**
+     * Maximum number of upstream map image fetches that run at once.
+     */
+    private static final int UPSTREAM_PERMITS = 16;
+    /**
+     * Maximum number of requests waiting for each limit, per permit. Requests beyond it are rejected immediately.
+     */
+    private static final int QUEUED_PER_PERMIT = 4;
+    /**
+     * Maximum time a request waits for a route search or upstream fetch to start before it is rejected.
+     */
+    private static final Duration MAX_WAIT = Duration.ofSeconds(2);
+    /**
+     * Default directory of the map image disk cache.
+     */
+    private static final String DISK_CACHE_DIR = "cache/huskymaps";
+    /**
+     * Request attribute that holds the timings of the request.
+     */
+    private static final String TIMINGS = "huskymaps.timings";
+    /**
+     * Default maximum size of the map image disk cache in bytes.
+     */
+    private static final long DISK_CACHE_BYTES = 1024L * 1024 * 1024;
+    /**
+     * The center of the map that index.html shows first.
+     */
+    private static final double DEFAULT_LON = -122.3035;
+    private static final double DEFAULT_LAT = 47.6553;
+    /**
+     * The zoom levels around the default center whose tiles are loaded into the caches on startup. index.html starts
+     * at zoom 11 and its zoom buttons keep the center, so these tiles are requested by most first visits.
+     */
+    private static final int[] WARMUP_ZOOMS = {10, 11, 12, 13};
+    /**
+     * Size in pixels of the window around the default center whose tiles are loaded into the caches on startup. Tiles
+     * don't depend on the window size, so this covers every smaller window too.
+     */
+    private static final int WARMUP_WIDTH = 2560;
+    private static final int WARMUP_HEIGHT = 1440;
+    /**
+     * Maximum number of map views loaded at once on startup.
+     */
+    private static final int WARMUP_THREADS = 4;
+    /**
+     * Width and height in pixels of each map tile. At zoom level z, the world is 2<sup>z+1</sup> tiles wide, so a tile
+     * pixel matches a pixel of a /map image at the same zoom.
+     */
+    private static final int TILE_SIZE = 512;
+    /**
+     * Maximum zoom level of map tiles.
+     */
+    private static final int MAX_ZOOM = 21;
+    /**
+     * Maximum time to connect to the upstream map image API.
+     */
+    static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(2);
+    /**
+     * Maximum time for each attempt to fetch a map image.
+     */
+    static final Duration FETCH_TIMEOUT = Duration.ofSeconds(5);
+    /**
+     * Maximum number of attempts to fetch each map image.
+     */
+    static final int FETCH_ATTEMPTS = 3;
+    /**
+     * How long a fetched map image is fresh, and then how long it is still served while a background refresh replaces
+     * it or while the upstream API fails. Map styles change rarely, so a stale image is almost always still correct.
+     */
+    private static final Duration MAX_AGE = Duration.ofDays(1);
+    private static final Duration STALE_WHILE_REVALIDATE = Duration.ofDays(1);
+    private static final Duration STALE_IF_ERROR = Duration.ofDays(7);
+    /**
+     * Number of threads that refresh stale map images in the background.
+     */
+    private static final int REFRESH_THREADS = 2;
+    /**
+     * Number of threads that run startup stages. Few stages are independent at once, so more threads wouldn't help.
+     */
+    private static final int STARTUP_THREADS = Math.min(Runtime.getRuntime().availableProcessors(), 4);
+    /**
+     * Radius in pixels of the round head of each search result marker.
+     */
+    private static final double MARKER_RADIUS = 9.0;
+    /**
+     * Maximum distance in pixels between a route point and the simplified route line. Routes are stroked at least 5
+     * pixels wide, so removing points within half a pixel doesn't visibly change them.
+     */
+    static final double SIMPLIFY_TOLERANCE = 0.5;
 
     public static void main(String[] args) throws Exception {
         SpatialContext context = SpatialContext.GEO;
-        MapGraph map = new MapGraph(OSM_DB_PATH, PLACES_PATH, context);
+        Metrics metrics = new Metrics();
+        // Blocking work is limited separately so that slow upstream fetches or a burst of routes can't occupy every
+        // request thread and stall /search.
+        Bulkhead routes = new Bulkhead("route", ROUTE_PERMITS, ROUTE_PERMITS * QUEUED_PER_PERMIT, MAX_WAIT, metrics);
+        Bulkhead upstream = new Bulkhead(
+                "upstream", UPSTREAM_PERMITS, UPSTREAM_PERMITS * QUEUED_PER_PERMIT, MAX_WAIT, metrics
+        );
+        AtomicBoolean ready = new AtomicBoolean();
+        // Completed once the first version of the map is loaded.
+        CompletableFuture<MapVersions> maps = new CompletableFuture<>();
         Javalin app = Javalin.create(config -> {
             config.addSinglePageRoot("/", "huskymaps/index.html");
         }).start(port());
-        ConcurrentHashMap<String, BufferedImage> cache = new ConcurrentHashMap<>();
+        // The server listens while it starts up so that health checks can tell starting from down.
+        app.before(ctx -> {
+            if (!ready.get() && !ctx.path().equals("/ready") && !ctx.path().equals("/metrics")) {
+                throw new ServiceUnavailableResponse("Starting up");
+            }
+        });
+        app.get("/ready", ctx -> {
+            if (!ready.get()) {
+                throw new ServiceUnavailableResponse("Starting up");
+            }
+            ctx.result("Ready with map version " + maps.join().current().number());
+        });
+        app.post("/admin/reload", ctx -> {
+            String token = System.getenv("ADMIN_TOKEN");
+            if (token == null) {
+                throw new NotFoundResponse();
+            }
+            byte[] expected = ("Bearer " + token).getBytes(StandardCharsets.UTF_8);
+            byte[] actual = String.valueOf(ctx.header("Authorization")).getBytes(StandardCharsets.UTF_8);
+            if (!MessageDigest.isEqual(expected, actual)) {
+                throw new UnauthorizedResponse();
+            }
+            maps.join().reload();
+            ctx.status(202).result("Reloading map");
+        });
+        app.exception(RejectedExecutionException.class, (e, ctx) -> {
+            // Shed load with a response the client can retry rather than letting requests pile up.
+            ctx.status(503).header("Retry-After", "1").result(e.getMessage());
+        });
+        app.exception(Router.IncompleteRouteException.class, (e, ctx) -> {
+            // A route search that ran out of time is not a missing route, so ask the client to retry.
+            ctx.status(503).header("Retry-After", "1").result(e.getMessage());
+        });
+        app.after(ctx -> {
+            // Finish timing here rather than in the handlers so that failed requests, which are often the slow ones,
+            // are recorded along with their status.
+            Metrics.Timings timings = ctx.attribute(TIMINGS);
+            if (timings != null) {
+                ctx.header("Server-Timing", timings.finish(ctx.status()));
+            }
+        });
+        app.get("/metrics", ctx -> {
+            ctx.contentType("text/plain; version=0.0.4; charset=utf-8");
+            ctx.result(metrics.scrape());
+        });
+
+        ExecutorService threads = startupThreads();
+        Startup startup = new Startup(threads);
+        CompletableFuture<MapVersions.Version> initial = version(1, startup, context, metrics);
+        CompletableFuture<DiskCache> diskCache = startup.stage("open disk cache", () -> new DiskCache(
+                Path.of(System.getenv().getOrDefault("DISK_CACHE_DIR", DISK_CACHE_DIR)), diskCacheBytes(), metrics
+        ));
+        startup.done().whenComplete((ignored, e) -> {
+            System.out.print(startup.report());
+            threads.shutdown();
+        });
+        MapVersions versions;
+        DiskCache disk;
+        try {
+            versions = new MapVersions(initial.join(), number -> {
+                // Each reload builds the next version with the same stages on its own pool.
+                ExecutorService reloadThreads = startupThreads();
+                Startup reload = new Startup(reloadThreads);
+                CompletableFuture<MapVersions.Version> next = version(number, reload, context, metrics);
+                reload.done().whenComplete((ignored, e) -> {
+                    System.out.print(reload.report());
+                    reloadThreads.shutdown();
+                });
+                return next;
+            }, metrics);
+            disk = diskCache.join();
+        } catch (CompletionException e) {
+            app.stop();
+            throw e;
+        }
+        maps.complete(versions);
+        if (Boolean.parseBoolean(System.getenv("WATCH_MAP_FILES"))) {
+            versions.watch(List.of(
+                    Path.of(OSM_DB_PATH), Path.of(PLACES_PATH),
+                    Path.of(MapSnapshot.SNAPSHOT_PATH), Path.of(MapSnapshot.HIERARCHY_PATH)
+            ));
+        }
+        TileFetcher tiles = new TileFetcher(CONNECT_TIMEOUT, FETCH_TIMEOUT, FETCH_ATTEMPTS, metrics);
+        ExecutorService refresher = Executors.newFixedThreadPool(REFRESH_THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Duration maxAge = seconds("MAX_AGE_SECONDS", MAX_AGE);
+        Duration staleWhileRevalidate = seconds("STALE_WHILE_REVALIDATE_SECONDS", STALE_WHILE_REVALIDATE);
+        Duration staleIfError = seconds("STALE_IF_ERROR_SECONDS", STALE_IF_ERROR);
+        MapImages images = new MapImages(
+                cacheBytes(), disk, tiles, upstream, maxAge, staleWhileRevalidate, staleIfError, refresher, metrics
+        );
+        warmUp(images);
         app.get("/map/{lon},{lat},{zoom}/{width}x{height}", ctx -> {
+            // Use one version throughout, even if a reload swaps in another while this request runs.
+            MapVersions.Version version = versions.current();
+            MapGraph map = version.map();
+            Router router = version.router();
+            Metrics.Timings timings = timings(ctx, metrics, "map");
             double lon = ctx.pathParamAsClass("lon", Double.class).get();
             double lat = ctx.pathParamAsClass("lat", Double.class).get();
             int zoom = ctx.pathParamAsClass("zoom", Integer.class).get();
             int width = ctx.pathParamAsClass("width", Integer.class).get();
             int height = ctx.pathParamAsClass("height", Integer.class).get();
             Point center = context.getShapeFactory().pointLatLon(lat, lon);
-            BufferedImage image = cache.get(ctx.path());
-            List<Point> locations = map.getLocations(ctx.queryParam("term"), center);
-            if (image == null || !locations.isEmpty()) {
-                // Only make an API call if the cached image is not available/matches or locations are requested.
-                image = ImageIO.read(url(center, zoom, width, height, locations));
-                if (locations.isEmpty()) {
-                    cache.putIfAbsent(ctx.path(), image);
-                }
-            }
+            List<Point> locations = map.getLocations(ctx.queryParam("term"), center, MAX_MARKERS);
+            timings.lap("locations");
             Validator<Double> startLon = ctx.queryParamAsClass("startLon", Double.class);
             Validator<Double> startLat = ctx.queryParamAsClass("startLat", Double.class);
             Validator<Double> goalLon = ctx.queryParamAsClass("goalLon", Double.class);
             Validator<Double> goalLat = ctx.queryParamAsClass("goalLat", Double.class);
-            if (JavalinValidation.collectErrors(startLon, startLat, goalLon, goalLat).isEmpty()) {
+            boolean hasRoute = JavalinValidation.collectErrors(startLon, startLat, goalLon, goalLat).isEmpty();
+            // The cache stores the encoded image, so plain map views are served without decoding or encoding.
+            String key = ctx.path();
+            URI uri = url(center, zoom, width, height);
+            MapImages.Image cached = images.cached(key, uri);
+            timings.lap("cache");
+            requests(metrics, "map", cached != null).increment();
+            if (cached == null) {
+                cached = images.load(key, uri);
+                timings.lap("fetch");
+            }
+            if (!hasRoute && locations.isEmpty()) {
+                respond(ctx, cached.bytes(), cached.etag(),
+                        cacheControl(cached, maxAge, staleWhileRevalidate, staleIfError));
+                return;
+            }
+            // Overlays are drawn locally on a fresh copy of the cached image instead of requested from the API.
+            BufferedImage image = decode(cached.bytes());
+            timings.lap("decode");
+            double lonDPP = SEATTLE_ROOT_LONDPP / Math.pow(2, zoom);
+            double latDPP = SEATTLE_ROOT_LATDPP / Math.pow(2, zoom);
+            Graphics2D g2d = image.createGraphics();
+            g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            if (hasRoute) {
                 // Overlay route if the route start and goal are defined.
                 Point start = context.getShapeFactory().pointLatLon(startLat.get(), startLon.get());
                 Point goal = context.getShapeFactory().pointLatLon(goalLat.get(), goalLon.get());
-                List<Point> route = new AStarSolver<>(map, map.closest(start), map.closest(goal)).solution();
+                int startVertex = router.snap(start);
+                int goalVertex = router.snap(goal);
+                timings.lap("snap");
+                int[] route = routes.call(() -> router.route(startVertex, goalVertex));
+                timings.lap("route");
+                // Convert route to pixel coordinates, dropping points that wouldn't visibly change the line.
+                double[] xs = new double[route.length];
+                double[] ys = new double[route.length];
+                for (int i = 0; i < route.length; i += 1) {
+                    xs[i] = (map.lon(route[i]) - center.getLon()) * (1 / lonDPP) + (width / 2);
+                    ys[i] = (center.getLat() - map.lat(route[i])) * (1 / latDPP) + (height / 2);
+                }
+                int[] kept = Polylines.simplify(xs, ys, SIMPLIFY_TOLERANCE);
                 // Convert route to xPoints and yPoints for Graphics2D.drawPolyline
-                double lonDPP = SEATTLE_ROOT_LONDPP / Math.pow(2, zoom);
-                double latDPP = SEATTLE_ROOT_LATDPP / Math.pow(2, zoom);
-                int[] xPoints = new int[route.size()];
-                int[] yPoints = new int[route.size()];
-                int i = 0;
-                for (Point location : route) {
-                    xPoints[i] = (int) ((location.getLon() - center.getLon()) * (1 / lonDPP)) + (width / 2);
-                    yPoints[i] = (int) ((center.getLat() - location.getLat()) * (1 / latDPP)) + (height / 2);
-                    i += 1;
+                int[] xPoints = new int[kept.length];
+                int[] yPoints = new int[kept.length];
+                for (int i = 0; i < kept.length; i += 1) {
+                    xPoints[i] = (int) xs[kept[i]];
+                    yPoints[i] = (int) ys[kept[i]];
                 }
-                // Create a copy of the image to avoid modifying cached image
-                image = new BufferedImage(
-                        image.getColorModel(),
-                        image.copyData(null),
-                        image.isAlphaPremultiplied(),
-                        null
-                );
-                Graphics2D g2d = image.createGraphics();
                 // Draw route outline
-                g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
                 g2d.setColor(new Color(255, 255, 255));
                 g2d.setStroke(new BasicStroke(10.0f, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
                 g2d.drawPolyline(xPoints, yPoints, xPoints.length);
@@ -110,20 +359,419 @@ public class MapServer {
                 g2d.setColor(new Color(108, 181, 230));
                 g2d.setStroke(new BasicStroke(5.0f, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
                 g2d.drawPolyline(xPoints, yPoints, xPoints.length);
-                g2d.dispose();
             }
-            ByteArrayOutputStream os = new ByteArrayOutputStream();
-            ImageIO.write(image, "png", os);
-            ctx.result(Base64.getEncoder().encode(os.toByteArray()));
+            for (Point location : locations) {
+                // Overlay a marker for each search result.
+                int x = (int) ((location.getLon() - center.getLon()) * (1 / lonDPP)) + (width / 2);
+                int y = (int) ((center.getLat() - location.getLat()) * (1 / latDPP)) + (height / 2);
+                drawMarker(g2d, x, y);
+            }
+            g2d.dispose();
+            timings.lap("draw");
+            byte[] result = encode(image);
+            timings.lap("encode");
+            // Routes and search results can change when the map is reloaded, so overlays are always revalidated.
+            respond(ctx, result, MapImages.etag(result), "no-cache");
         });
-        app.get("/search", ctx -> {
-            List<CharSequence> result = map.getLocationsByPrefix(ctx.queryParam("term"));
-            if (result.size() > MAX_MATCHES) {
-                ctx.json(result.subList(0, MAX_MATCHES));
+        app.get("/tile/{zoom}/{x}/{y}", ctx -> {
+            Metrics.Timings timings = timings(ctx, metrics, "tile");
+            int zoom = ctx.pathParamAsClass("zoom", Integer.class)
+                    .check(z -> 0 <= z && z <= MAX_ZOOM, "must be between 0 and " + MAX_ZOOM)
+                    .get();
+            int count = 1 << (zoom + 1);
+            int x = ctx.pathParamAsClass("x", Integer.class).check(i -> 0 <= i && i < count, "outside the map").get();
+            int y = ctx.pathParamAsClass("y", Integer.class).check(i -> 0 <= i && i < count, "outside the map").get();
+            // Tiles are the same for every window size and pan offset, so their keys repeat across clients.
+            String key = "/tile/" + zoom + "/" + x + "/" + y;
+            URI uri = tileUrl(zoom, x, y);
+            MapImages.Image tile = images.cached(key, uri);
+            timings.lap("cache");
+            requests(metrics, "tile", tile != null).increment();
+            if (tile == null) {
+                tile = images.load(key, uri);
+                timings.lap("fetch");
+            }
+            respond(ctx, tile.bytes(), tile.etag(),
+                    cacheControl(tile, maxAge, staleWhileRevalidate, staleIfError));
+        });
+        app.get("/locations", ctx -> {
+            MapVersions.Version version = versions.current();
+            MapGraph map = version.map();
+            double lon = ctx.queryParamAsClass("lon", Double.class).get();
+            double lat = ctx.queryParamAsClass("lat", Double.class).get();
+            Point center = context.getShapeFactory().pointLatLon(lat, lon);
+            List<Point> locations = map.getLocations(ctx.queryParam("term"), center, MAX_MARKERS);
+            double[][] coordinates = new double[locations.size()][];
+            for (int i = 0; i < coordinates.length; i += 1) {
+                coordinates[i] = new double[]{locations.get(i).getLon(), locations.get(i).getLat()};
+            }
+            ctx.json(coordinates);
+        });
+        app.get("/route", ctx -> {
+            Metrics.Timings timings = timings(ctx, metrics, "route");
+            MapVersions.Version version = versions.current();
+            MapGraph map = version.map();
+            Router router = version.router();
+            double startLon = ctx.queryParamAsClass("startLon", Double.class).get();
+            double startLat = ctx.queryParamAsClass("startLat", Double.class).get();
+            double goalLon = ctx.queryParamAsClass("goalLon", Double.class).get();
+            double goalLat = ctx.queryParamAsClass("goalLat", Double.class).get();
+            String format = ctx.queryParamAsClass("format", String.class)
+                    .check(f -> f.equals("polyline") || f.equals("json"), "must be polyline or json")
+                    .getOrDefault("polyline");
+            Integer zoom = ctx.queryParamAsClass("zoom", Integer.class)
+                    .check(z -> 0 <= z && z <= MAX_ZOOM, "must be between 0 and " + MAX_ZOOM)
+                    .getOrDefault(null);
+            int startVertex = router.snap(context.getShapeFactory().pointLatLon(startLat, startLon));
+            int goalVertex = router.snap(context.getShapeFactory().pointLatLon(goalLat, goalLon));
+            timings.lap("snap");
+            int[] route = routes.call(() -> router.route(startVertex, goalVertex));
+            timings.lap("route");
+            double distance = router.meters(route);
+            if (zoom != null) {
+                // Simplify in pixel coordinates at the requested zoom so the client draws the same line as /map.
+                double lonDPP = SEATTLE_ROOT_LONDPP / Math.pow(2, zoom);
+                double latDPP = SEATTLE_ROOT_LATDPP / Math.pow(2, zoom);
+                double[] xs = new double[route.length];
+                double[] ys = new double[route.length];
+                for (int i = 0; i < route.length; i += 1) {
+                    xs[i] = map.lon(route[i]) / lonDPP;
+                    ys[i] = map.lat(route[i]) / latDPP;
+                }
+                int[] kept = Polylines.simplify(xs, ys, SIMPLIFY_TOLERANCE);
+                for (int i = 0; i < kept.length; i += 1) {
+                    kept[i] = route[kept[i]];
+                }
+                route = kept;
+                timings.lap("simplify");
+            }
+            double[] lats = new double[route.length];
+            double[] lons = new double[route.length];
+            for (int i = 0; i < route.length; i += 1) {
+                lats[i] = map.lat(route[i]);
+                lons[i] = map.lon(route[i]);
+            }
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("found", route.length > 0);
+            result.put("distance", distance);
+            if (format.equals("polyline")) {
+                result.put("polyline", Polylines.encode(lats, lons));
             } else {
-                ctx.json(result);
+                double[][] coordinates = new double[route.length][];
+                for (int i = 0; i < route.length; i += 1) {
+                    coordinates[i] = new double[]{lons[i], lats[i]};
+                }
+                result.put("coordinates", coordinates);
             }
+            timings.lap("encode");
+            ctx.json(result);
+        });
+        app.get("/search", ctx -> {
+            Metrics.Timings timings = timings(ctx, metrics, "search");
+            MapVersions.Version version = versions.current();
+            MapGraph map = version.map();
+            List<CharSequence> result = map.getLocationsByPrefix(ctx.queryParam("term"), MAX_MATCHES);
+            timings.lap("autocomplete");
+            ctx.json(result);
         });
+        ready.set(true);
+    }
+
+    /**
+     * Adds the stages that load a version of the map data to the startup pipeline. The graph is read from the prebuilt
+     * snapshot if it is up to date, or else built from the OSM and places files, while the contraction hierarchy is
+     * read. A hierarchy built for another graph is not used.
+     *
+     * @param number  the number of the version.
+     * @param startup the pipeline to add the stages to.
+     * @param context the spatial context for creating points.
+     * @param metrics the registry for the router's metrics.
+     * @return a future that completes with the version once its router is created.
+     */
+    private static CompletableFuture<MapVersions.Version> version(int number, Startup startup, SpatialContext context,
+                                                                  Metrics metrics) {
+        CompletableFuture<MapGraph> graph;
+        Path snapshot = Path.of(MapSnapshot.SNAPSHOT_PATH);
+        if (current(snapshot)) {
+            // Memory-map the prebuilt snapshot instead of parsing the OSM and places files.
+            graph = startup.stage("read snapshot", () -> MapSnapshot.read(snapshot, context));
+        } else {
+            graph = MapGraph.load(OSM_DB_PATH, PLACES_PATH, context, startup);
+        }
+        CompletableFuture<ContractionHierarchy> hierarchy = startup.stage("read hierarchy", MapServer::hierarchy);
+        return startup.stage("create router", () -> {
+            MapGraph map = graph.join();
+            return new MapVersions.Version(number, map, new Router(map, matching(hierarchy.join(), map), metrics));
+        }, graph, hierarchy);
+    }
+
+    /**
+     * Returns whether the snapshot was built from the OSM and places files as they are now. A snapshot that is out of
+     * date, such as after the OSM file is replaced, is ignored until MapSnapshot is run again to rebuild it.
+     *
+     * @param snapshot the snapshot path.
+     * @return true if the map should be read from the snapshot, false if it should be built from the source files.
+     */
+    private static boolean current(Path snapshot) {
+        if (!Files.exists(snapshot)) {
+            return false;
+        }
+        try {
+            if (MapSnapshot.isCurrent(snapshot, OSM_DB_PATH, PLACES_PATH)) {
+                return true;
+            }
+            System.err.println("Ignoring out of date map snapshot " + snapshot + "; run MapSnapshot to rebuild it");
+        } catch (IOException e) {
+            System.err.println("Ignoring unreadable map snapshot " + snapshot + ": " + e);
+        }
+        return false;
+    }
+
+    /**
+     * Returns a new pool of daemon threads for running startup stages.
+     *
+     * @return the pool of startup threads.
+     */
+    private static ExecutorService startupThreads() {
+        return Executors.newFixedThreadPool(STARTUP_THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "startup");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Returns the prebuilt contraction hierarchy, or null if there isn't one. The hierarchy keeps query state for as
+     * many routes as can run at once.
+     *
+     * @return the prebuilt contraction hierarchy, or null.
+     * @throws IOException if the hierarchy file exists but cannot be read.
+     */
+    private static ContractionHierarchy hierarchy() throws IOException {
+        Path path = Path.of(MapSnapshot.HIERARCHY_PATH);
+        if (!Files.isReadable(path)) {
+            return null;
+        }
+        return ContractionHierarchy.read(path, ROUTE_PERMITS);
+    }
+
+    /**
+     * Returns the contraction hierarchy if it was built for the map, or null if it is null or was not.
+     *
+     * @param hierarchy the prebuilt contraction hierarchy, or null.
+     * @param map       the map to route on.
+     * @return the contraction hierarchy for the map, or null if routes should be searched with A* instead.
+     */
+    private static ContractionHierarchy matching(ContractionHierarchy hierarchy, MapGraph map) {
+        if (hierarchy == null || !hierarchy.matches(map)) {
+            return null;
+        }
+        return hierarchy;
+    }
+
+    /**
+     * Returns the counter of map image requests to the endpoint that did or did not hit the memory cache.
+     *
+     * @param metrics  the registry that holds the counter.
+     * @param endpoint the name of the endpoint.
+     * @param hit      whether the request hit the memory cache.
+     * @return the counter for the endpoint and outcome.
+     */
+    private static Metrics.Counter requests(Metrics metrics, String endpoint, boolean hit) {
+        return metrics.counter("huskymaps_image_requests_total",
+                "Map image requests by endpoint and whether the memory cache hit.",
+                "endpoint", endpoint, "cache", hit ? "hit" : "miss");
+    }
+
+    /**
+     * Starts loading the tiles around the default center into the caches in the background, so that the first
+     * visitors after a restart don't wait for the upstream API.
+     *
+     * @param images the map images to load into.
+     */
+    private static void warmUp(MapImages images) {
+        ExecutorService threads = Executors.newFixedThreadPool(WARMUP_THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "warm-up");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long start = System.nanoTime();
+        AtomicInteger loaded = new AtomicInteger();
+        List<CompletableFuture<Void>> tiles = new ArrayList<>();
+        for (int zoom : WARMUP_ZOOMS) {
+            double centerX = tileX(DEFAULT_LON, zoom);
+            double centerY = tileY(DEFAULT_LAT, zoom);
+            double halfWidth = WARMUP_WIDTH / 2.0 / TILE_SIZE;
+            double halfHeight = WARMUP_HEIGHT / 2.0 / TILE_SIZE;
+            for (int x = (int) (centerX - halfWidth); x <= (int) (centerX + halfWidth); x += 1) {
+                for (int y = (int) (centerY - halfHeight); y <= (int) (centerY + halfHeight); y += 1) {
+                    String key = "/tile/" + zoom + "/" + x + "/" + y;
+                    URI uri = tileUrl(zoom, x, y);
+                    tiles.add(CompletableFuture.runAsync(() -> {
+                        try {
+                            images.load(key, uri);
+                            loaded.incrementAndGet();
+                        } catch (IOException | RejectedExecutionException e) {
+                            System.err.println("Could not warm up " + key + ": " + e);
+                        }
+                    }, threads));
+                }
+            }
+        }
+        CompletableFuture.allOf(tiles.toArray(new CompletableFuture<?>[0])).thenRun(() -> {
+            System.out.printf("Warmed up %d of %d map tiles in %.2fs%n",
+                    loaded.get(), tiles.size(), (System.nanoTime() - start) / 1e9);
+            threads.shutdown();
+        });
+    }
+
+    /**
+     * Returns the maximum size of the map image cache in bytes.
+     *
+     * @return the maximum size of the map image cache in bytes.
+     */
+    private static long cacheBytes() {
+        String bytes = System.getenv("CACHE_BYTES");
+        if (bytes != null) {
+            return Long.parseLong(bytes);
+        }
+        return CACHE_BYTES;
+    }
+
+    /**
+     * Returns the maximum size of the map image disk cache in bytes.
+     *
+     * @return the maximum size of the map image disk cache in bytes.
+     */
+    private static long diskCacheBytes() {
+        String bytes = System.getenv("DISK_CACHE_BYTES");
+        if (bytes != null) {
+            return Long.parseLong(bytes);
+        }
+        return DISK_CACHE_BYTES;
+    }
+
+    /**
+     * Returns the duration in seconds from the environment variable, or the default if it is not set.
+     *
+     * @param variable     the name of the environment variable.
+     * @param defaultValue the duration to use if the variable is not set.
+     * @return the duration.
+     */
+    private static Duration seconds(String variable, Duration defaultValue) {
+        String seconds = System.getenv(variable);
+        if (seconds != null) {
+            return Duration.ofSeconds(Long.parseLong(seconds));
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Starts timing a request to the handler. The timings are finished once the response is known, whether the
+     * handler succeeded or failed.
+     *
+     * @param ctx     the request context.
+     * @param metrics the registry to record stage durations in.
+     * @param handler the name of the handler.
+     * @return the timings of the request.
+     */
+    private static Metrics.Timings timings(Context ctx, Metrics metrics, String handler) {
+        Metrics.Timings timings = new Metrics.Timings(metrics, handler);
+        ctx.attribute(TIMINGS, timings);
+        return timings;
+    }
+
+    /**
+     * Sends the image as the response. With format=png, the PNG bytes are sent as they are along with their entity
+     * tag and caching headers, or 304 Not Modified if the client already has them. Otherwise, the bytes are sent
+     * Base64-encoded for older clients.
+     *
+     * @param ctx          the request context.
+     * @param bytes        the PNG bytes of the image.
+     * @param etag         the entity tag of the bytes.
+     * @param cacheControl the Cache-Control header for the image.
+     */
+    private static void respond(Context ctx, byte[] bytes, String etag, String cacheControl) {
+        if (!"png".equals(ctx.queryParam("format"))) {
+            ctx.result(Base64.getEncoder().encode(bytes));
+            return;
+        }
+        ctx.header("ETag", etag);
+        ctx.header("Cache-Control", cacheControl);
+        if (matches(ctx.header("If-None-Match"), etag)) {
+            ctx.status(304);
+            return;
+        }
+        ctx.contentType("image/png");
+        // Javalin streams the array without copying it, so the cached bytes go straight to the response.
+        ctx.result(bytes);
+    }
+
+    /**
+     * Returns whether the If-None-Match header matches the entity tag.
+     *
+     * @param ifNoneMatch the If-None-Match header, or null if there is none.
+     * @param etag        the entity tag of the current representation.
+     * @return whether the client already has the current representation.
+     */
+    private static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            // If-None-Match uses the weak comparison, so weak tags from intermediaries still match.
+            if (tag.equals("*") || tag.equals(etag) || tag.equals("W/" + etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the Cache-Control header for a cached map image, which lets browsers and shared caches keep the image
+     * for as long as it stays fresh here and reuse it under the same stale windows.
+     *
+     * @param image                the cached image.
+     * @param maxAge               how long a fetched image stays fresh.
+     * @param staleWhileRevalidate how long after the maximum age a stale image is served while it is refreshed.
+     * @param staleIfError         how long after the maximum age a stale image is served if the upstream API fails.
+     * @return the Cache-Control header.
+     */
+    private static String cacheControl(MapImages.Image image, Duration maxAge, Duration staleWhileRevalidate,
+                                       Duration staleIfError) {
+        long age = (System.currentTimeMillis() - image.fetched()) / 1000;
+        return "public, max-age=" + Math.max(maxAge.getSeconds() - age, 0)
+                + ", stale-while-revalidate=" + staleWhileRevalidate.getSeconds()
+                + ", stale-if-error=" + staleIfError.getSeconds();
+    }
+
+    /**
+     * Returns the PNG bytes of the image.
+     *
+     * @param image the image to encode.
+     * @return the PNG bytes.
+     * @throws IOException if the image cannot be encoded.
+     */
+    private static byte[] encode(BufferedImage image) throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", os);
+        return os.toByteArray();
+    }
+
+    /**
+     * Returns the image decoded from its encoded bytes.
+     *
+     * @param bytes the encoded image bytes.
+     * @return the decoded image.
+     * @throws IOException if the bytes are not a valid image.
+     */
+    private static BufferedImage decode(byte[] bytes) throws IOException {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(bytes));
+        if (image == null) {
+            throw new IOException("Not a supported image format");
+        }
+        return image;
     }
 
     /**
@@ -139,36 +787,97 @@ public class MapServer {
         return PORT;
     }
 
+    /**
+     * Draws a map marker whose tip points at the given pixel.
+     *
+     * @param g2d the graphics context to draw with.
+     * @param x   the x-coordinate of the marker tip.
+     * @param y   the y-coordinate of the marker tip.
+     */
+    private static void drawMarker(Graphics2D g2d, int x, int y) {
+        double r = MARKER_RADIUS;
+        Path2D.Double pin = new Path2D.Double();
+        pin.moveTo(x, y);
+        pin.curveTo(x - r * 0.4, y - r * 0.8, x - r, y - r * 1.3, x - r, y - r * 2);
+        pin.curveTo(x - r, y - r * 2.55, x - r * 0.55, y - r * 3, x, y - r * 3);
+        pin.curveTo(x + r * 0.55, y - r * 3, x + r, y - r * 2.55, x + r, y - r * 2);
+        pin.curveTo(x + r, y - r * 1.3, x + r * 0.4, y - r * 0.8, x, y);
+        pin.closePath();
+        g2d.setColor(new Color(227, 85, 85));
+        g2d.fill(pin);
+        g2d.setColor(new Color(255, 255, 255));
+        g2d.setStroke(new BasicStroke(2.0f));
+        g2d.draw(pin);
+        g2d.fill(new Ellipse2D.Double(x - r * 0.35, y - r * 2.35, r * 0.7, r * 0.7));
+    }
+
+    /**
+     * Returns the fractional x-coordinate in tiles of the longitude in the Web Mercator projection.
+     *
+     * @param lon  the longitude.
+     * @param zoom the zoom level.
+     * @return the x-coordinate in tiles.
+     */
+    private static double tileX(double lon, int zoom) {
+        return (lon + 180) / 360 * (1 << (zoom + 1));
+    }
+
+    /**
+     * Returns the fractional y-coordinate in tiles of the latitude in the Web Mercator projection.
+     *
+     * @param lat  the latitude.
+     * @param zoom the zoom level.
+     * @return the y-coordinate in tiles.
+     */
+    private static double tileY(double lat, int zoom) {
+        double radians = Math.toRadians(lat);
+        return (1 - Math.log(Math.tan(radians) + 1 / Math.cos(radians)) / Math.PI) / 2 * (1 << (zoom + 1));
+    }
+
+    /**
+     * Return the API URL for retrieving a map tile.
+     *
+     * @param zoom the zoom level of the tile.
+     * @param x    the column of the tile.
+     * @param y    the row of the tile.
+     * @return the URL for retrieving the map tile.
+     */
+    private static URI tileUrl(int zoom, int x, int y) {
+        return URI.create(String.format(
+                "%s"
+                        // {username}/{style_id}
+                        + "styles/v1/%s/%s/"
+                        // Tiles are requested at 256 pixels and @2x so that they are 512 pixels wide.
+                        + "tiles/256/%d/%d/%d@2x"
+                        + "?access_token=%s",
+                System.getenv().getOrDefault("MAPBOX_URL", MAPBOX_URL),
+                System.getenv().getOrDefault("USERNAME", "mapbox"),
+                System.getenv().getOrDefault("STYLE_ID", "streets-v11"),
+                zoom + 1, x, y,
+                System.getenv("TOKEN")
+        ));
+    }
+
     /**
      * Return the API URL for retrieving the map image.
      *
-     * @param center    the center of the map image.
-     * @param width     the width of the window.
-     * @param height    the height of the window.
-     * @param locations the list of locations (or null).
+     * @param center the center of the map image.
+     * @param width  the width of the window.
+     * @param height the height of the window.
      * @return the URL for retrieving the map image.
-     * @throws MalformedURLException if the URL is invalid.
-     */
-    private static URL url(Point center, int zoom, int width, int height, List<Point> locations)
-            throws MalformedURLException {
-        String markers = "";
-        if (locations != null && !locations.isEmpty()) {
-            markers = locations.stream().map(location -> String.format(
-                    "pin-s(%f,%f)", location.getLon(), location.getLat()
-            )).collect(Collectors.joining(","));
-            markers += "/";
-        }
-        return new URL(String.format(
-                "https://api.mapbox.com/"
-                        // {username}/{style_id} and {overlay} (must include trailing slash)
-                        + "styles/v1/%s/%s/static/%s"
+     */
+    private static URI url(Point center, int zoom, int width, int height) {
+        return URI.create(String.format(
+                "%s"
+                        // {username}/{style_id}
+                        + "styles/v1/%s/%s/static/"
                         // {lon},{lat},{zoom}/{width}x{height}{@2x}
                         + "%f,%f,%d/%dx%d%s"
                         // Access token and optional parameters
                         + "?access_token=%s&logo=false&attribution=false",
+                System.getenv().getOrDefault("MAPBOX_URL", MAPBOX_URL),
                 System.getenv().getOrDefault("USERNAME", "mapbox"),
                 System.getenv().getOrDefault("STYLE_ID", "streets-v11"),
-                markers,
                 center.getLon(), center.getLat(), zoom,
                 (int) Math.ceil(width / 2.), (int) Math.ceil(height / 2.), "@2x",
                 System.getenv("TOKEN")
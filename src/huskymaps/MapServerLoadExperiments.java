@@ -0,0 +1,388 @@
+package huskymaps;
+
+import com.sun.net.httpserver.HttpServer;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Run load experiments against a running {@link MapServer} and save a CSV file of the throughput and latency
+ * percentiles at each concurrency level. The experiment replays a log of request paths, one per line, either given as
+ * the first argument or generated from simulated browsing sessions that send what the map page sends: the tiles that
+ * come into view as the map is panned and zoomed, a search term typed one keystroke at a time, the locations matching
+ * the term around each view, and routes. Each session requests a tile only once, as the browser caches the rest. The
+ * generated log is saved so that later runs can replay it.
+ * <p>
+ * The experiment also starts a stub map image API that returns blank tiles and static images after a fixed delay, so
+ * that no requests reach Mapbox. Start the server with {@code MAPBOX_URL=http://localhost:8081/} to use it.
+ */
+class MapServerLoadExperiments {
+    /**
+     * Base URL of the server under test.
+     */
+    private static final String SERVER = "http://localhost:8080";
+    /**
+     * Port for the stub map image API.
+     */
+    private static final int STUB_PORT = 8081;
+    /**
+     * Simulated latency of the stub map image API in milliseconds.
+     */
+    private static final int STUB_DELAY_MILLIS = 50;
+    /**
+     * Numbers of concurrent clients to run the log with.
+     */
+    private static final int[] CONCURRENCY = {1, 4, 16, 64};
+    /**
+     * Number of simulated browsing sessions in a generated log. Making this smaller means experiments run faster.
+     */
+    private static final int NUM_SESSIONS = 100;
+    /**
+     * Number of actions in each simulated browsing session.
+     */
+    private static final int SESSION_LENGTH = 20;
+    /**
+     * Size of the browser window in each simulated session.
+     */
+    private static final int WIDTH = 1280;
+    private static final int HEIGHT = 800;
+    /**
+     * Width of the tiles that the map page requests, in pixels.
+     */
+    private static final int TILE_SIZE = 512;
+    /**
+     * Zoom levels that the map page allows.
+     */
+    private static final int MIN_ZOOM = 8;
+    private static final int MAX_ZOOM = 16;
+    /**
+     * Number of tiles to move each tile east per concurrency level, far more than a session pans.
+     */
+    private static final int SHIFT_TILES = 256;
+    /**
+     * The place-importance TSV data file path, used to pick search terms.
+     */
+    private static final String PLACES_PATH = "data/huskymaps/places.tsv.gz";
+    /**
+     * Number of the most important places to pick search terms from.
+     */
+    private static final int NUM_PLACES = 1000;
+    /**
+     * Path to the generated request log.
+     */
+    private static final String LOG_PATH = "loadtest-requests.txt";
+    /**
+     * Path to the output CSV file.
+     */
+    private static final String PATH = "loadtest.csv";
+    /**
+     * Matches tile paths so that each concurrency level can shift them to tiles the server hasn't cached.
+     */
+    private static final Pattern TILE_PATH = Pattern.compile("^/tile/(\\d+)/(\\d+)/(\\d+)(.*)$");
+
+    public static void main(String[] args) throws Exception {
+        List<String> log;
+        if (args.length > 0) {
+            log = Files.readAllLines(Path.of(args[0]));
+        } else {
+            log = generate(new Random(373), places());
+            Files.write(Path.of(LOG_PATH), log);
+        }
+        System.out.println(log.size() + " requests loaded");
+
+        ExecutorService stubThreads = Executors.newCachedThreadPool();
+        HttpServer stub = stub(stubThreads);
+        String server = System.getenv().getOrDefault("SERVER", SERVER);
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        PrintStream out = new PrintStream(PATH);
+        out.println("concurrency,requests,errors,seconds,throughput,p50Millis,p99Millis,p999Millis");
+        for (int level = 0; level < CONCURRENCY.length; level += 1) {
+            int concurrency = CONCURRENCY[level];
+            // Shift every tile so that each level starts with a cold image cache.
+            List<String> paths = new ArrayList<>(log.size());
+            for (String path : log) {
+                paths.add(shift(path, level));
+            }
+            long[] latencies = new long[paths.size()];
+            AtomicInteger next = new AtomicInteger();
+            AtomicInteger errors = new AtomicInteger();
+            ExecutorService clients = Executors.newFixedThreadPool(concurrency);
+            List<Future<?>> futures = new ArrayList<>();
+            long start = System.nanoTime();
+            for (int i = 0; i < concurrency; i += 1) {
+                futures.add(clients.submit(() -> {
+                    // Each client sends the next unsent request in the log until there are none left.
+                    for (int j = next.getAndIncrement(); j < paths.size(); j = next.getAndIncrement()) {
+                        HttpRequest request = HttpRequest.newBuilder(URI.create(server + paths.get(j))).build();
+                        long requestStart = System.nanoTime();
+                        try {
+                            HttpResponse<byte[]> response = client.send(
+                                    request, HttpResponse.BodyHandlers.ofByteArray()
+                            );
+                            if (response.statusCode() != 200) {
+                                errors.incrementAndGet();
+                            }
+                        } catch (IOException e) {
+                            errors.incrementAndGet();
+                        }
+                        latencies[j] = System.nanoTime() - requestStart;
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            double seconds = (double) (System.nanoTime() - start) / 1_000_000_000;
+            clients.shutdown();
+
+            Arrays.sort(latencies);
+            out.printf("%d,%d,%d,%.3f,%.1f,%.3f,%.3f,%.3f%n", concurrency, latencies.length, errors.get(), seconds,
+                    latencies.length / seconds, percentile(latencies, 0.5), percentile(latencies, 0.99),
+                    percentile(latencies, 0.999));
+            System.out.printf("%d clients: %.1f requests/s, p50 %.1f ms, p99 %.1f ms, p999 %.1f ms, %d errors%n",
+                    concurrency, latencies.length / seconds, percentile(latencies, 0.5),
+                    percentile(latencies, 0.99), percentile(latencies, 0.999), errors.get());
+        }
+        out.close();
+        stub.stop(0);
+        stubThreads.shutdown();
+    }
+
+    /**
+     * Returns the request paths for simulated browsing sessions around Seattle.
+     */
+    private static List<String> generate(Random random, List<String> places) {
+        List<String> log = new ArrayList<>();
+        for (int session = 0; session < NUM_SESSIONS; session += 1) {
+            double lon = -122.3321 + (random.nextDouble() - 0.5) * 0.1;
+            double lat = 47.6062 + (random.nextDouble() - 0.5) * 0.1;
+            int zoom = 12 + random.nextInt(4);
+            String term = null;
+            String route = null;
+            // Tiles already requested in this session, which the browser serves from its own cache.
+            Set<String> cached = new HashSet<>();
+            view(log, cached, lon, lat, zoom, term);
+            for (int i = 0; i < SESSION_LENGTH; i += 1) {
+                double action = random.nextDouble();
+                if (action < 0.6) {
+                    // Pan by a quarter of the window in a random direction.
+                    double x = projectX(lon, zoom) + (random.nextInt(3) - 1) * WIDTH / 4.0;
+                    double y = projectY(lat, zoom) + (random.nextInt(3) - 1) * HEIGHT / 4.0;
+                    lon = unprojectX(x, zoom);
+                    lat = unprojectY(y, zoom);
+                } else if (action < 0.8) {
+                    zoom = Math.max(MIN_ZOOM, Math.min(MAX_ZOOM, zoom + (random.nextBoolean() ? 1 : -1)));
+                    if (route != null) {
+                        // The route is simplified for a specific zoom level.
+                        log.add(String.format(Locale.ROOT, "/route?format=polyline&zoom=%d&%s", zoom, route));
+                    }
+                } else if (action < 0.9 && !places.isEmpty()) {
+                    // Type a search term one keystroke at a time, then show its locations.
+                    term = places.get(random.nextInt(places.size()));
+                    for (int length = 1; length <= term.length(); length += 1) {
+                        log.add("/search?term=" + encode(term.substring(0, length)));
+                    }
+                } else {
+                    // Double-clicking the goal requests the route without moving the map.
+                    double goalLon = lon + (random.nextDouble() - 0.5) * 0.05;
+                    double goalLat = lat + (random.nextDouble() - 0.5) * 0.05;
+                    route = String.format(Locale.ROOT, "startLon=%f&startLat=%f&goalLon=%f&goalLat=%f",
+                            lon, lat, goalLon, goalLat);
+                    log.add(String.format(Locale.ROOT, "/route?format=polyline&zoom=%d&%s", zoom, route));
+                    continue;
+                }
+                view(log, cached, lon, lat, zoom, term);
+            }
+        }
+        return log;
+    }
+
+    /**
+     * Adds the paths that the map page requests to show the view: the tiles covering the window that the session has
+     * not requested before, and the locations of the search term if it is not null.
+     */
+    private static void view(List<String> log, Set<String> cached, double lon, double lat, int zoom, String term) {
+        double left = projectX(lon, zoom) - WIDTH / 2.0;
+        double top = projectY(lat, zoom) - HEIGHT / 2.0;
+        int count = 1 << (zoom + 1);
+        int maxX = Math.min(count - 1, (int) Math.floor((left + WIDTH) / TILE_SIZE));
+        int maxY = Math.min(count - 1, (int) Math.floor((top + HEIGHT) / TILE_SIZE));
+        for (int x = Math.max(0, (int) Math.floor(left / TILE_SIZE)); x <= maxX; x += 1) {
+            for (int y = Math.max(0, (int) Math.floor(top / TILE_SIZE)); y <= maxY; y += 1) {
+                String path = "/tile/" + zoom + "/" + x + "/" + y + "?format=png";
+                if (cached.add(path)) {
+                    log.add(path);
+                }
+            }
+        }
+        if (term != null) {
+            log.add(String.format(Locale.ROOT, "/locations?term=%s&lon=%f&lat=%f", encode(term), lon, lat));
+        }
+    }
+
+    /**
+     * Returns the width of the world in pixels at the zoom level of the map page.
+     */
+    private static double worldSize(int zoom) {
+        return 2.0 * TILE_SIZE * Math.pow(2, zoom);
+    }
+
+    /**
+     * Returns the Web Mercator x-coordinate in world pixels of the longitude.
+     */
+    private static double projectX(double lon, int zoom) {
+        return (lon + 180) / 360 * worldSize(zoom);
+    }
+
+    /**
+     * Returns the Web Mercator y-coordinate in world pixels of the latitude.
+     */
+    private static double projectY(double lat, int zoom) {
+        double radians = Math.toRadians(lat);
+        return (1 - Math.log(Math.tan(radians) + 1 / Math.cos(radians)) / Math.PI) / 2 * worldSize(zoom);
+    }
+
+    private static double unprojectX(double x, int zoom) {
+        return x / worldSize(zoom) * 360 - 180;
+    }
+
+    private static double unprojectY(double y, int zoom) {
+        return Math.toDegrees(Math.atan(Math.sinh(Math.PI * (1 - 2 * y / worldSize(zoom)))));
+    }
+
+    /**
+     * Returns the path with its tile moved east by {@link #SHIFT_TILES} per level, or the path itself if it is not a
+     * tile or the moved tile would be outside the map.
+     */
+    private static String shift(String path, int level) {
+        Matcher matcher = TILE_PATH.matcher(path);
+        if (level == 0 || !matcher.matches()) {
+            return path;
+        }
+        int zoom = Integer.parseInt(matcher.group(1));
+        int x = Integer.parseInt(matcher.group(2)) + level * SHIFT_TILES;
+        if (x >= 1 << (zoom + 1)) {
+            return path;
+        }
+        return "/tile/" + zoom + "/" + x + "/" + matcher.group(3) + matcher.group(4);
+    }
+
+    /**
+     * Returns the names of the most important places.
+     */
+    private static List<String> places() throws IOException {
+        Map<String, Integer> importance = new HashMap<>();
+        try (Scanner input = new Scanner(new GZIPInputStream(new FileInputStream(PLACES_PATH)))) {
+            while (input.hasNextLine()) {
+                Scanner line = new Scanner(input.nextLine()).useDelimiter("\t");
+                importance.put(line.next(), line.nextInt());
+            }
+        }
+        List<String> places = new ArrayList<>(importance.keySet());
+        places.sort(Comparator.comparing(importance::get));
+        return places.subList(0, Math.min(NUM_PLACES, places.size()));
+    }
+
+    /**
+     * Starts the stub map image API, which responds to every tile or static image request with a blank PNG of the
+     * requested size.
+     */
+    private static HttpServer stub(ExecutorService threads) throws IOException {
+        // Matches the tiles/{tilesize}/{z}/{x}/{y}@2x segments of the tile path.
+        Pattern tile = Pattern.compile("/tiles/(\\d+)/\\d+/\\d+/\\d+(@2x)?$");
+        // Matches the {width}x{height}@2x segment of the static image path.
+        Pattern size = Pattern.compile("/(\\d+)x(\\d+)(@2x)?$");
+        Map<String, byte[]> images = new ConcurrentHashMap<>();
+        HttpServer stub = HttpServer.create(new InetSocketAddress(STUB_PORT), 0);
+        stub.setExecutor(threads);
+        stub.createContext("/", exchange -> {
+            String path = exchange.getRequestURI().getPath();
+            byte[] image = new byte[0];
+            Matcher matcher = tile.matcher(path);
+            if (matcher.find()) {
+                int side = Integer.parseInt(matcher.group(1)) * (matcher.group(2) == null ? 1 : 2);
+                image = images.computeIfAbsent(side + "x" + side, k -> blank(side, side));
+            } else if ((matcher = size.matcher(path)).find()) {
+                int scale = matcher.group(3) == null ? 1 : 2;
+                int width = Integer.parseInt(matcher.group(1)) * scale;
+                int height = Integer.parseInt(matcher.group(2)) * scale;
+                image = images.computeIfAbsent(width + "x" + height, k -> blank(width, height));
+            }
+            try {
+                Thread.sleep(STUB_DELAY_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.getResponseHeaders().set("Content-Type", "image/png");
+            exchange.sendResponseHeaders(image.length > 0 ? 200 : 404, image.length > 0 ? image.length : -1);
+            try (OutputStream body = exchange.getResponseBody()) {
+                body.write(image);
+            }
+        });
+        stub.start();
+        System.out.println("Stub map images at http://localhost:" + STUB_PORT + "/");
+        return stub;
+    }
+
+    /**
+     * Returns a PNG of the given size filled with the map background color.
+     */
+    private static byte[] blank(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2d = image.createGraphics();
+        g2d.setColor(new Color(242, 239, 233));
+        g2d.fillRect(0, 0, width, height);
+        g2d.dispose();
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        try {
+            ImageIO.write(image, "png", os);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return os.toByteArray();
+    }
+
+    /**
+     * Returns the URL-encoded query parameter value.
+     */
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the latency at the given quantile of the sorted latencies in milliseconds.
+     */
+    private static double percentile(long[] sorted, double quantile) {
+        if (sorted.length == 0) {
+            return 0.0;
+        }
+        int index = (int) Math.ceil(quantile * sorted.length) - 1;
+        return (double) sorted[Math.max(0, index)] / 1_000_000;
+    }
+}
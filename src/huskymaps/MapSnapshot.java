@@ -0,0 +1,382 @@
+package huskymaps;
+
+import graphs.CSRGraph;
+import graphs.shortestpaths.ContractionHierarchy;
+import org.locationtech.spatial4j.context.SpatialContext;
+import org.locationtech.spatial4j.shape.Point;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Versioned binary snapshot of a {@link MapGraph} that can be memory-mapped and loaded without parsing the OSM XML
+ * or the places TSV. All values are little-endian and every string is its UTF-8 byte length followed by its bytes.
+ * <pre>
+ * int     magic, version
+ * string  osmPath, placesPath
+ * long    osmSize, osmModified, placesSize, placesModified
+ * int     vertexCount, edgeCount
+ * pad     to a multiple of 8 bytes
+ * int[]   offsets (vertexCount + 1), targets (edgeCount)
+ * pad     to a multiple of 8 bytes
+ * double[] weights (edgeCount), lats (vertexCount), lons (vertexCount)
+ * int     nameCount, then for each name: string name, int count, double[] lats (count), double[] lons (count)
+ * int     importanceCount, then for each place: string name, int importance
+ * </pre>
+ * The road network arrays are aligned so that they can be read in place through views over the mapped file instead
+ * of copied to the heap, and little-endian so that reading them doesn't swap bytes on common hardware. The size and
+ * modification time of each source file are recorded so that a snapshot built from other sources is rejected rather
+ * than served. The place names are also the autocomplete terms, so they're written in sorted order.
+ *
+ * @see MapGraph
+ * @see MapServer
+ */
+public class MapSnapshot {
+    /**
+     * The OpenStreetMap XML file path to build the default snapshot from.
+     */
+    private static final String OSM_DB_PATH = "data/huskymaps/seattle-small.osm.gz";
+    /**
+     * The place-importance TSV data file path to build the default snapshot from.
+     */
+    private static final String PLACES_PATH = "data/huskymaps/places.tsv.gz";
+    /**
+     * The default snapshot file path.
+     */
+    static final String SNAPSHOT_PATH = "data/huskymaps/seattle-small.snapshot";
+    /**
+     * The default contraction hierarchy file path.
+     */
+    static final String HIERARCHY_PATH = "data/huskymaps/seattle-small.ch";
+    /**
+     * The byte order of every value in a snapshot file.
+     */
+    private static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+    /**
+     * The bytes "HMAP" identifying a snapshot file, read as a little-endian int.
+     */
+    private static final int MAGIC = 0x50414D48;
+    /**
+     * The snapshot format version. Increment whenever the layout changes.
+     */
+    private static final int VERSION = 3;
+    /**
+     * The alignment in bytes of the road network arrays.
+     */
+    private static final int ALIGNMENT = Double.BYTES;
+
+    /**
+     * Builds a snapshot and a contraction hierarchy from the OSM and places files. Optional arguments override the
+     * OSM path, places path, snapshot path, and hierarchy path, in that order.
+     */
+    public static void main(String[] args) throws Exception {
+        String osmPath = args.length > 0 ? args[0] : OSM_DB_PATH;
+        String placesPath = args.length > 1 ? args[1] : PLACES_PATH;
+        String snapshotPath = args.length > 2 ? args[2] : SNAPSHOT_PATH;
+        String hierarchyPath = args.length > 3 ? args[3] : HIERARCHY_PATH;
+        long start = System.nanoTime();
+        MapGraph map = new MapGraph(osmPath, placesPath, SpatialContext.GEO);
+        long parsed = System.nanoTime();
+        write(map, Path.of(snapshotPath));
+        long written = System.nanoTime();
+        ContractionHierarchy hierarchy = ContractionHierarchy.build(map);
+        hierarchy.write(Path.of(hierarchyPath));
+        long contracted = System.nanoTime();
+        System.out.printf("Parsed %s in %.2fs%n", map, (parsed - start) / 1e9);
+        System.out.printf("Wrote %s (%d bytes) in %.2fs%n",
+                snapshotPath, Files.size(Path.of(snapshotPath)), (written - parsed) / 1e9);
+        System.out.printf("Wrote %s (%d shortcuts, %d bytes) in %.2fs%n",
+                hierarchyPath, hierarchy.shortcutCount(), Files.size(Path.of(hierarchyPath)),
+                (contracted - written) / 1e9);
+    }
+
+    /**
+     * Writes a snapshot of the given map to the given path, replacing any existing file only once the snapshot has
+     * been completely written.
+     *
+     * @param map  the map to write.
+     * @param path the destination path.
+     * @throws IOException if an I/O error occurs.
+     */
+    public static void write(MapGraph map, Path path) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            writeInt(out, MAGIC);
+            writeInt(out, VERSION);
+            writeString(out, map.osmPath());
+            writeString(out, map.placesPath());
+            for (long stat : sources(map.osmPath(), map.placesPath())) {
+                writeLong(out, stat);
+            }
+
+            // Road network.
+            int vertexCount = map.size();
+            int edgeCount = vertexCount == 0 ? 0 : map.endEdge(vertexCount - 1);
+            writeInt(out, vertexCount);
+            writeInt(out, edgeCount);
+            align(out);
+            for (int v = 0; v < vertexCount; v += 1) {
+                writeInt(out, map.firstEdge(v));
+            }
+            writeInt(out, edgeCount);
+            for (int e = 0; e < edgeCount; e += 1) {
+                writeInt(out, map.target(e));
+            }
+            align(out);
+            for (int e = 0; e < edgeCount; e += 1) {
+                writeDouble(out, map.weight(e));
+            }
+            for (int v = 0; v < vertexCount; v += 1) {
+                writeDouble(out, map.lat(v));
+            }
+            for (int v = 0; v < vertexCount; v += 1) {
+                writeDouble(out, map.lon(v));
+            }
+
+            // Place names and their locations.
+            Map<String, List<Point>> locations = new TreeMap<>(map.locations());
+            writeInt(out, locations.size());
+            for (Map.Entry<String, List<Point>> entry : locations.entrySet()) {
+                writeString(out, entry.getKey());
+                writeInt(out, entry.getValue().size());
+                for (Point location : entry.getValue()) {
+                    writeDouble(out, location.getLat());
+                }
+                for (Point location : entry.getValue()) {
+                    writeDouble(out, location.getLon());
+                }
+            }
+
+            // Place importance.
+            Map<CharSequence, Integer> importance = map.importance();
+            writeInt(out, importance.size());
+            for (Map.Entry<CharSequence, Integer> entry : importance.entrySet()) {
+                writeString(out, entry.getKey().toString());
+                writeInt(out, entry.getValue());
+            }
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Returns whether the file at the given path is a snapshot of this version that was built from the given OSM and
+     * places files as they are now. Only the header is read.
+     *
+     * @param path       the snapshot path.
+     * @param osmPath    the OSM file path that the snapshot should be built from.
+     * @param placesPath the places file path that the snapshot should be built from.
+     * @return true if the snapshot can be read in place of the OSM and places files, false if it is missing,
+     * unsupported, or out of date.
+     * @throws IOException if an I/O error occurs while reading the header.
+     */
+    public static boolean isCurrent(Path path, String osmPath, String placesPath) throws IOException {
+        if (!Files.isReadable(path)) {
+            return false;
+        }
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        buffer.order(ORDER);
+        try {
+            if (buffer.remaining() < 8 || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                return false;
+            }
+            if (!readString(buffer).equals(osmPath) || !readString(buffer).equals(placesPath)) {
+                return false;
+            }
+            long[] sources = new long[4];
+            for (int i = 0; i < sources.length; i += 1) {
+                sources[i] = buffer.getLong();
+            }
+            return Arrays.equals(sources, sources(osmPath, placesPath));
+        } catch (BufferUnderflowException | IllegalArgumentException | NegativeArraySizeException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns a new map by memory-mapping the snapshot at the given path. The road network and vertex coordinates are
+     * read through views over the mapped file, which stays mapped for as long as the map is in use.
+     *
+     * @param path    the snapshot path.
+     * @param context the spatial context for computing distances.
+     * @return a new map containing the snapshot data.
+     * @throws IOException if an I/O error occurs, if the file is not a supported snapshot, or if the OSM or places
+     *                     file has changed since the snapshot was written.
+     */
+    public static MapGraph read(Path path, SpatialContext context) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        buffer.order(ORDER);
+        try {
+            return read(buffer, context, path);
+        } catch (BufferUnderflowException | IllegalArgumentException | NegativeArraySizeException e) {
+            throw new IOException("Corrupt map snapshot: " + path, e);
+        }
+    }
+
+    /**
+     * Returns a new map decoded from the snapshot contents in the given buffer.
+     */
+    private static MapGraph read(ByteBuffer buffer, SpatialContext context, Path path) throws IOException {
+        if (buffer.remaining() < 8 || buffer.getInt() != MAGIC) {
+            throw new IOException("Not a map snapshot: " + path);
+        }
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported map snapshot version " + version + ": " + path);
+        }
+        String osmPath = readString(buffer);
+        String placesPath = readString(buffer);
+        long[] sources = new long[4];
+        for (int i = 0; i < sources.length; i += 1) {
+            sources[i] = buffer.getLong();
+        }
+        if (!Arrays.equals(sources, sources(osmPath, placesPath))) {
+            throw new IOException(
+                    "Map snapshot was built from other versions of " + osmPath + " or " + placesPath + ": " + path
+            );
+        }
+
+        // Road network, read in place.
+        int vertexCount = buffer.getInt();
+        int edgeCount = buffer.getInt();
+        align(buffer);
+        IntBuffer offsets = intView(buffer, vertexCount + 1);
+        IntBuffer targets = intView(buffer, edgeCount);
+        align(buffer);
+        DoubleBuffer weights = doubleView(buffer, edgeCount);
+        DoubleBuffer lats = doubleView(buffer, vertexCount);
+        DoubleBuffer lons = doubleView(buffer, vertexCount);
+        Point[] vertices = new Point[vertexCount];
+        for (int v = 0; v < vertexCount; v += 1) {
+            vertices[v] = context.getShapeFactory().pointLatLon(lats.get(v), lons.get(v));
+        }
+
+        // Place names and their locations.
+        int nameCount = buffer.getInt();
+        Map<String, List<Point>> locations = new HashMap<>(nameCount * 2);
+        for (int i = 0; i < nameCount; i += 1) {
+            String name = readString(buffer);
+            int count = buffer.getInt();
+            double[] placeLats = readDoubles(buffer, count);
+            double[] placeLons = readDoubles(buffer, count);
+            List<Point> points = new ArrayList<>(count);
+            for (int j = 0; j < count; j += 1) {
+                points.add(context.getShapeFactory().pointLatLon(placeLats[j], placeLons[j]));
+            }
+            locations.put(name, points);
+        }
+
+        // Place importance.
+        int importanceCount = buffer.getInt();
+        Map<CharSequence, Integer> importance = new HashMap<>(importanceCount * 2);
+        for (int i = 0; i < importanceCount; i += 1) {
+            importance.put(readString(buffer), buffer.getInt());
+        }
+        return new MapGraph(osmPath, placesPath, context, new CSRGraph(offsets, targets, weights), vertices,
+                lats, lons, locations, importance);
+    }
+
+    /**
+     * Returns the size and modification time of the OSM file followed by those of the places file, or -1 for each
+     * file that is not on the file system, such as a file read from the classpath.
+     */
+    private static long[] sources(String osmPath, String placesPath) throws IOException {
+        long[] result = new long[4];
+        String[] paths = {osmPath, placesPath};
+        for (int i = 0; i < paths.length; i += 1) {
+            Path source = Path.of(paths[i]);
+            if (Files.isRegularFile(source)) {
+                result[2 * i] = Files.size(source);
+                result[2 * i + 1] = Files.getLastModifiedTime(source).toMillis();
+            } else {
+                result[2 * i] = -1;
+                result[2 * i + 1] = -1;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Writes zeros until the number of bytes written is a multiple of the alignment.
+     */
+    private static void align(DataOutputStream out) throws IOException {
+        while (out.size() % ALIGNMENT != 0) {
+            out.writeByte(0);
+        }
+    }
+
+    /**
+     * Skips to the next position that is a multiple of the alignment.
+     */
+    private static void align(ByteBuffer buffer) {
+        buffer.position((buffer.position() + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT);
+    }
+
+    private static void writeInt(DataOutputStream out, int value) throws IOException {
+        out.writeInt(Integer.reverseBytes(value));
+    }
+
+    private static void writeLong(DataOutputStream out, long value) throws IOException {
+        out.writeLong(Long.reverseBytes(value));
+    }
+
+    private static void writeDouble(DataOutputStream out, double value) throws IOException {
+        writeLong(out, Double.doubleToRawLongBits(value));
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        writeInt(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns a view of the next ints in the buffer without copying them, and skips past them.
+     */
+    private static IntBuffer intView(ByteBuffer buffer, int length) {
+        IntBuffer result = buffer.slice().order(ORDER).asIntBuffer();
+        result.limit(length);
+        buffer.position(buffer.position() + length * Integer.BYTES);
+        return result.slice();
+    }
+
+    /**
+     * Returns a view of the next doubles in the buffer without copying them, and skips past them.
+     */
+    private static DoubleBuffer doubleView(ByteBuffer buffer, int length) {
+        DoubleBuffer result = buffer.slice().order(ORDER).asDoubleBuffer();
+        result.limit(length);
+        buffer.position(buffer.position() + length * Double.BYTES);
+        return result.slice();
+    }
+
+    private static double[] readDoubles(ByteBuffer buffer, int length) {
+        double[] result = new double[length];
+        buffer.asDoubleBuffer().get(result);
+        buffer.position(buffer.position() + length * Double.BYTES);
+        return result;
+    }
+}
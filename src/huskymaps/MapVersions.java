@@ -0,0 +1,227 @@
+package huskymaps;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Versioned reference to the map data that requests are served from. A reload builds the next version in the
+ * background and then swaps it in atomically. Each request reads the current version once and uses it throughout, so
+ * requests in flight during a swap finish on the version they started with. Routing state derived from a graph, such
+ * as landmark distances and per-name k-d trees, belongs to its version and is discarded with it.
+ * <p>
+ * Only one reload runs at a time, and reloads requested while one is running share it, so at most one extra graph is
+ * in memory while the next version is built.
+ *
+ * @see MapServer
+ */
+final class MapVersions {
+    /**
+     * Time in milliseconds without further changes to the watched files before a reload starts, so that a reload
+     * doesn't read a file that is still being written.
+     */
+    private static final long QUIET_MILLIS = 2000;
+
+    private final AtomicReference<Version> current;
+    private final Loader loader;
+    /**
+     * The reload in progress, or null if there is none.
+     */
+    private CompletableFuture<Version> pending;
+    private final Metrics.Counter reloaded;
+    private final Metrics.Counter failed;
+
+    /**
+     * Constructs a reference to the initial version and registers its metrics.
+     *
+     * @param initial the version to serve until the first reload.
+     * @param loader  the loader that builds each later version.
+     * @param metrics the registry to record the current version and reload outcomes in.
+     */
+    MapVersions(Version initial, Loader loader, Metrics metrics) {
+        this.current = new AtomicReference<>(initial);
+        this.loader = loader;
+        String help = "Reloads of the map data by outcome.";
+        this.reloaded = metrics.counter("huskymaps_map_reloads_total", help, "outcome", "ok");
+        this.failed = metrics.counter("huskymaps_map_reloads_total", help, "outcome", "failed");
+        metrics.gauge("huskymaps_map_version", "Version number of the map data being served.",
+                () -> current.get().number());
+    }
+
+    /**
+     * Returns the version that new requests should be served from.
+     *
+     * @return the current version.
+     */
+    Version current() {
+        return current.get();
+    }
+
+    /**
+     * Starts building the next version in the background unless a reload is already running, and returns a future
+     * that completes once that version is being served. If the reload fails, the current version stays in place.
+     *
+     * @return a future that completes with the new version.
+     */
+    synchronized CompletableFuture<Version> reload() {
+        if (pending != null) {
+            return pending;
+        }
+        int number = current.get().number() + 1;
+        CompletableFuture<Version> result = new CompletableFuture<>();
+        pending = result;
+        CompletableFuture<Version> load;
+        try {
+            load = loader.load(number);
+        } catch (RuntimeException e) {
+            // A loader that fails before returning its future must not leave every later reload waiting on this one.
+            load = CompletableFuture.failedFuture(e);
+        }
+        load.whenComplete((version, e) -> {
+            synchronized (this) {
+                pending = null;
+                if (e == null) {
+                    current.set(version);
+                }
+            }
+            if (e == null) {
+                reloaded.increment();
+                System.out.println("Serving map version " + number);
+                result.complete(version);
+            } else {
+                failed.increment();
+                System.err.println("Could not reload map version " + number + ": " + e);
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Starts a daemon thread that reloads the map whenever any of the files is created or modified.
+     *
+     * @param files the files to watch.
+     * @throws IOException if the directories of the files cannot be watched.
+     */
+    void watch(List<Path> files) throws IOException {
+        WatchService watcher = FileSystems.getDefault().newWatchService();
+        Set<Path> watched = new HashSet<>();
+        for (Path file : files) {
+            Path absolute = file.toAbsolutePath();
+            watched.add(absolute);
+            absolute.getParent().register(
+                    watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY
+            );
+        }
+        Thread thread = new Thread(() -> {
+            try {
+                while (true) {
+                    boolean changed = changed(watcher.take(), watched);
+                    // Wait for the files to stop changing, so that a reload reads them whole.
+                    WatchKey next;
+                    while ((next = watcher.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+                        changed |= changed(next, watched);
+                    }
+                    if (changed) {
+                        reload();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "map-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Returns whether the events of the key include a change to any of the watched files, and resets the key.
+     */
+    private static boolean changed(WatchKey key, Set<Path> watched) {
+        Path directory = (Path) key.watchable();
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                // Events were lost, so any of the files might have changed.
+                changed = true;
+            } else if (watched.contains(directory.resolve((Path) event.context()))) {
+                changed = true;
+            }
+        }
+        key.reset();
+        return changed;
+    }
+
+    /**
+     * One version of the map data, and the router over it.
+     */
+    static final class Version {
+        private final int number;
+        private final MapGraph map;
+        private final Router router;
+
+        /**
+         * Constructs a version.
+         *
+         * @param number the version number, starting from 1 for the map loaded on startup.
+         * @param map    the map graph.
+         * @param router the router over the map graph.
+         */
+        Version(int number, MapGraph map, Router router) {
+            this.number = number;
+            this.map = map;
+            this.router = router;
+        }
+
+        /**
+         * Returns the version number.
+         *
+         * @return the version number.
+         */
+        int number() {
+            return number;
+        }
+
+        /**
+         * Returns the map graph.
+         *
+         * @return the map graph.
+         */
+        MapGraph map() {
+            return map;
+        }
+
+        /**
+         * Returns the router over the map graph.
+         *
+         * @return the router.
+         */
+        Router router() {
+            return router;
+        }
+    }
+
+    /**
+     * Builds a version of the map data.
+     */
+    @FunctionalInterface
+    interface Loader {
+        /**
+         * Starts building the version in the background.
+         *
+         * @param number the number of the version to build.
+         * @return a future that completes with the version.
+         */
+        CompletableFuture<Version> load(int number);
+    }
+}
@@ -0,0 +1,384 @@
+package huskymaps;
+
+import java.math.BigDecimal;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+/**
+ * In-process registry of counters, gauges, and histograms exposed in the
+ * <a href="https://prometheus.io/docs/instrumenting/exposition_formats/">Prometheus text format</a>. Recording a value
+ * never takes a lock: counters are {@link LongAdder}s and histograms count values in log-linear buckets, eight per
+ * power of two, so a recorded latency is off by at most an eighth but costs only a few atomic increments.
+ *
+ * @see MapServer
+ */
+final class Metrics {
+    /**
+     * Histogram unit for durations recorded in nanoseconds and exposed in seconds.
+     */
+    static final double NANOS = 1e-9;
+    /**
+     * Histogram unit for plain counts.
+     */
+    static final double COUNT = 1.0;
+
+    private final ConcurrentHashMap<String, Family> families;
+
+    /**
+     * Constructs an empty registry.
+     */
+    Metrics() {
+        this.families = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Returns the counter with the given name and labels, registering it on first use.
+     *
+     * @param name   the metric name, which should end in {@code _total}.
+     * @param help   the description of the metric.
+     * @param labels alternating label names and values.
+     * @return the counter with the given name and labels.
+     */
+    Counter counter(String name, String help, String... labels) {
+        return (Counter) family(name, help, "counter").series.computeIfAbsent(labels(labels), k -> new Counter());
+    }
+
+    /**
+     * Registers a counter whose value is read from the supplier on each scrape.
+     *
+     * @param name   the metric name, which should end in {@code _total}.
+     * @param help   the description of the metric.
+     * @param value  the supplier of the current count.
+     * @param labels alternating label names and values.
+     */
+    void counter(String name, String help, DoubleSupplier value, String... labels) {
+        family(name, help, "counter").series.put(labels(labels), value);
+    }
+
+    /**
+     * Registers a gauge whose value is read from the supplier on each scrape.
+     *
+     * @param name   the metric name.
+     * @param help   the description of the metric.
+     * @param value  the supplier of the current value.
+     * @param labels alternating label names and values.
+     */
+    void gauge(String name, String help, DoubleSupplier value, String... labels) {
+        family(name, help, "gauge").series.put(labels(labels), value);
+    }
+
+    /**
+     * Returns the histogram with the given name and labels, registering it on first use.
+     *
+     * @param name   the metric name.
+     * @param help   the description of the metric.
+     * @param unit   the exposed value of one recorded unit, such as {@link #NANOS}.
+     * @param labels alternating label names and values.
+     * @return the histogram with the given name and labels.
+     */
+    Histogram histogram(String name, String help, double unit, String... labels) {
+        return (Histogram) family(name, help, "histogram").series.computeIfAbsent(
+                labels(labels), k -> new Histogram(unit)
+        );
+    }
+
+    /**
+     * Returns every registered metric in the Prometheus text format, sorted by name and labels.
+     *
+     * @return every registered metric in the Prometheus text format.
+     */
+    String scrape() {
+        StringBuilder result = new StringBuilder();
+        for (Family family : new TreeMap<>(families).values()) {
+            result.append("# HELP ").append(family.name).append(' ').append(family.help).append('\n');
+            result.append("# TYPE ").append(family.name).append(' ').append(family.type).append('\n');
+            for (Map.Entry<String, Object> entry : new TreeMap<>(family.series).entrySet()) {
+                String labels = entry.getKey();
+                Object series = entry.getValue();
+                if (series instanceof Histogram) {
+                    ((Histogram) series).write(family.name, labels, result);
+                } else if (series instanceof Counter) {
+                    sample(result, family.name, labels, ((Counter) series).get());
+                } else {
+                    sample(result, family.name, labels, ((DoubleSupplier) series).getAsDouble());
+                }
+            }
+        }
+        return result.toString();
+    }
+
+    /**
+     * Returns the family with the given name, registering it on first use.
+     *
+     * @throws IllegalArgumentException if the name is already registered with a different type.
+     */
+    private Family family(String name, String help, String type) {
+        Family family = families.computeIfAbsent(name, k -> new Family(name, help, type));
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException(name + " is a " + family.type + ", not a " + type);
+        }
+        return family;
+    }
+
+    /**
+     * Returns the label pairs formatted as the inside of a Prometheus label set, such as {@code a="1",b="2"}.
+     *
+     * @throws IllegalArgumentException if there is an odd number of strings.
+     */
+    private static String labels(String... labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be name-value pairs");
+        }
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) {
+                result.append(',');
+            }
+            result.append(labels[i]).append("=\"").append(labels[i + 1].replace("\\", "\\\\")
+                    .replace("\"", "\\\"").replace("\n", "\\n")).append('"');
+        }
+        return result.toString();
+    }
+
+    /**
+     * Appends one sample line.
+     */
+    private static void sample(StringBuilder result, String name, String labels, double value) {
+        result.append(name);
+        if (!labels.isEmpty()) {
+            result.append('{').append(labels).append('}');
+        }
+        result.append(' ').append(format(value)).append('\n');
+    }
+
+    /**
+     * Returns the value in Prometheus number syntax.
+     */
+    private static String format(double value) {
+        if (value == Double.POSITIVE_INFINITY) {
+            return "+Inf";
+        }
+        if (value == (long) value) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+
+    /**
+     * A named group of series that share a type, keyed by their formatted labels.
+     */
+    private static final class Family {
+        final String name;
+        final String help;
+        final String type;
+        final ConcurrentHashMap<String, Object> series;
+
+        Family(String name, String help, String type) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+            this.series = new ConcurrentHashMap<>();
+        }
+    }
+
+    /**
+     * A monotonically increasing count.
+     */
+    static final class Counter {
+        private final LongAdder count = new LongAdder();
+
+        /**
+         * Adds one to the count.
+         */
+        void increment() {
+            count.increment();
+        }
+
+        /**
+         * Adds the given amount to the count.
+         */
+        void add(long amount) {
+            count.add(amount);
+        }
+
+        /**
+         * Returns the current count.
+         */
+        long get() {
+            return count.sum();
+        }
+    }
+
+    /**
+     * A distribution of non-negative values in log-linear buckets. Values up to 8 each have their own bucket, and each
+     * power-of-two range (2<sup>k</sup>, 2<sup>k+1</sup>] above that is split into 8 equal buckets, so every bucket
+     * boundary is within an eighth of the values it counts. Every second boundary is exposed, four per power of two,
+     * and only from about a microsecond to a minute for durations, and from 1 to about 16 million for counts.
+     */
+    static final class Histogram {
+        /**
+         * Number of bits of each value below its leading bit that select its bucket within a power of two.
+         */
+        private static final int SUB_BITS = 3;
+        /**
+         * Number of linear buckets per power of two.
+         */
+        private static final int SUB_BUCKETS = 1 << SUB_BITS;
+        /**
+         * Number of buckets, enough for any non-negative long.
+         */
+        private static final int BUCKETS = SUB_BUCKETS + 1 + (Long.SIZE - 1 - SUB_BITS) * SUB_BUCKETS;
+        /**
+         * Only every this many bucket boundaries above {@link #SUB_BUCKETS} are exposed, to keep scrapes small.
+         */
+        private static final int EXPOSED_STEP = 2;
+
+        private final double unit;
+        /**
+         * The formatted upper bound of each exposed bucket in exposed units, or null if the bucket is not exposed.
+         */
+        private final String[] bounds;
+        private final AtomicLongArray buckets;
+        private final LongAdder sum;
+
+        private Histogram(double unit) {
+            this.unit = unit;
+            double min = unit == NANOS ? Math.scalb(1.0, 10) : 1;
+            double max = unit == NANOS ? Math.scalb(1.0, 35) : Math.scalb(1.0, 24);
+            this.bounds = new String[BUCKETS];
+            for (int i = 0; i < BUCKETS; i += 1) {
+                double bound = upperBound(i);
+                if (min <= bound && bound <= max && (i <= SUB_BUCKETS || (i - SUB_BUCKETS) % EXPOSED_STEP == 0)) {
+                    // Multiply exactly, so that boundaries read as 0.00131072 rather than 0.0013107200000000002.
+                    bounds[i] = BigDecimal.valueOf(bound).multiply(BigDecimal.valueOf(unit))
+                            .stripTrailingZeros().toPlainString();
+                }
+            }
+            this.buckets = new AtomicLongArray(BUCKETS);
+            this.sum = new LongAdder();
+        }
+
+        /**
+         * Records one value, treating negative values as zero.
+         *
+         * @param value the value in recorded units.
+         */
+        void record(long value) {
+            value = Math.max(0, value);
+            buckets.incrementAndGet(bucket(value));
+            sum.add(value);
+        }
+
+        /**
+         * Returns the bucket of the non-negative value.
+         */
+        private static int bucket(long value) {
+            if (value <= SUB_BUCKETS) {
+                return (int) value;
+            }
+            // Buckets include their upper bound, so a value at a boundary falls into the bucket below it.
+            long below = value - 1;
+            int shift = Long.SIZE - 1 - Long.numberOfLeadingZeros(below) - SUB_BITS;
+            int sub = (int) (below >>> shift) - SUB_BUCKETS;
+            return SUB_BUCKETS + 1 + shift * SUB_BUCKETS + sub;
+        }
+
+        /**
+         * Returns the greatest value counted by the bucket.
+         */
+        private static double upperBound(int bucket) {
+            if (bucket <= SUB_BUCKETS) {
+                return bucket;
+            }
+            int i = bucket - SUB_BUCKETS - 1;
+            return Math.scalb((double) (SUB_BUCKETS + 1 + i % SUB_BUCKETS), i / SUB_BUCKETS);
+        }
+
+        /**
+         * Appends the cumulative buckets, sum, and count.
+         */
+        private void write(String name, String labels, StringBuilder result) {
+            String prefix = labels.isEmpty() ? "" : labels + ",";
+            long cumulative = 0;
+            for (int i = 0; i < BUCKETS; i += 1) {
+                cumulative += buckets.get(i);
+                if (bounds[i] != null) {
+                    sample(result, name + "_bucket", prefix + "le=\"" + bounds[i] + '"', cumulative);
+                }
+            }
+            sample(result, name + "_bucket", prefix + "le=\"+Inf\"", cumulative);
+            sample(result, name + "_sum", labels, sum.sum() * unit);
+            sample(result, name + "_count", labels, cumulative);
+        }
+    }
+
+    /**
+     * Times the consecutive stages of one request, recording each stage's duration in a histogram and in a
+     * <a href="https://www.w3.org/TR/server-timing/">Server-Timing</a> header value. Instances are not thread-safe.
+     */
+    static final class Timings {
+        private final Metrics metrics;
+        private final String handler;
+        private final StringBuilder header;
+        private final long start;
+        private long mark;
+
+        /**
+         * Starts timing the first stage of a request to the given handler.
+         *
+         * @param metrics the registry to record stage durations in.
+         * @param handler the name of the handler.
+         */
+        Timings(Metrics metrics, String handler) {
+            this.metrics = metrics;
+            this.handler = handler;
+            this.header = new StringBuilder();
+            this.start = System.nanoTime();
+            this.mark = start;
+        }
+
+        /**
+         * Ends the current stage and starts the next one.
+         *
+         * @param stage the name of the stage that just ended.
+         */
+        void lap(String stage) {
+            long now = System.nanoTime();
+            long elapsed = now - mark;
+            mark = now;
+            metrics.histogram("huskymaps_stage_seconds", "Time spent in each stage of a request.", NANOS,
+                    "handler", handler, "stage", stage).record(elapsed);
+            append(stage, elapsed);
+        }
+
+        /**
+         * Records the total duration of the request by its response status and returns the Server-Timing header value
+         * with the duration of each stage and the total in milliseconds.
+         *
+         * @param status the HTTP status of the response.
+         * @return the Server-Timing header value.
+         */
+        String finish(int status) {
+            long elapsed = System.nanoTime() - start;
+            metrics.histogram("huskymaps_request_seconds", "Time spent handling each request.", NANOS,
+                    "handler", handler, "status", String.valueOf(status)).record(elapsed);
+            append("total", elapsed);
+            return header.toString();
+        }
+
+        /**
+         * Appends one stage duration to the header value.
+         */
+        private void append(String stage, long elapsed) {
+            if (header.length() > 0) {
+                header.append(", ");
+            }
+            header.append(stage).append(";dur=").append(String.format(Locale.ROOT, "%.3f", elapsed / 1e6));
+        }
+    }
+}
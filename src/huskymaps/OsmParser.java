@@ -0,0 +1,275 @@
+package huskymaps;
+
+import graphs.CSRGraph;
+import org.locationtech.spatial4j.context.SpatialContext;
+import org.locationtech.spatial4j.shape.Point;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Two-pass streaming StAX parser for gzipped OpenStreetMap (OSM) XML files. The first pass reads only the ways,
+ * collecting the ids of nodes referenced by allowed highways into a primitive {@link LongIntHashMap}. The second pass
+ * reads only the nodes, keeping the coordinates of referenced nodes and creating {@link Point} objects only for road
+ * vertices and named places. Peak memory therefore scales with the road network rather than the whole extract.
+ *
+ * @see MapGraph
+ */
+class OsmParser {
+    /**
+     * The highway types that are included in the road network.
+     */
+    static final Set<String> HIGHWAY_TYPES = Set.of(
+            "motorway",
+            "trunk",
+            "primary",
+            "secondary",
+            "tertiary",
+            "unclassified",
+            "residential",
+            "living_street",
+            "motorway_link",
+            "trunk_link",
+            "primary_link",
+            "secondary_link",
+            "tertiary_link"
+    );
+    private static final int OTHER = 0;
+    private static final int NODE = 1;
+    private static final int WAY = 2;
+
+    private final SpatialContext context;
+    private final Set<String> allowedHighwayTypes;
+    /**
+     * The slot of each node referenced by an allowed way, assigned in order of first reference.
+     */
+    private final LongIntHashMap slots;
+    /**
+     * The node slots of every allowed way, concatenated.
+     */
+    private int[] wayNodes;
+    private int wayNodeCount;
+    /**
+     * The end index into {@code wayNodes} of each allowed way.
+     */
+    private int[] wayEnds;
+    private int wayCount;
+    /**
+     * The coordinates of each node slot, or NaN if the node was never found.
+     */
+    private double[] lats;
+    private double[] lons;
+
+    /**
+     * The road network over dense vertex ids.
+     */
+    CSRGraph roads;
+    /**
+     * The location of each vertex id.
+     */
+    Point[] vertices;
+    /**
+     * The locations of each place name.
+     */
+    Map<String, List<Point>> byName;
+
+    /**
+     * Constructs a parser that includes only the allowed highway types in the road network.
+     *
+     * @param context             the spatial context for creating points and computing distances.
+     * @param allowedHighwayTypes the highway types to include.
+     */
+    OsmParser(SpatialContext context, Set<String> allowedHighwayTypes) {
+        this.context = context;
+        this.allowedHighwayTypes = allowedHighwayTypes;
+        this.slots = new LongIntHashMap();
+        this.wayNodes = new int[1024];
+        this.wayEnds = new int[64];
+    }
+
+    /**
+     * Parses the gzipped OSM file at the given path, reading it twice.
+     *
+     * @param osmPath the path to a gzipped OSM (XML) file.
+     * @throws XMLStreamException for XML errors.
+     * @throws IOException        if the file is not found or if the file is not gzipped.
+     */
+    void parse(String osmPath) throws XMLStreamException, IOException {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        try (InputStream in = new GZIPInputStream(MapGraph.fileStream(osmPath))) {
+            XMLStreamReader reader = factory.createXMLStreamReader(in);
+            readWays(reader);
+            reader.close();
+        }
+        lats = new double[slots.size()];
+        lons = new double[slots.size()];
+        Arrays.fill(lats, Double.NaN);
+        Arrays.fill(lons, Double.NaN);
+        byName = new HashMap<>();
+        try (InputStream in = new GZIPInputStream(MapGraph.fileStream(osmPath))) {
+            XMLStreamReader reader = factory.createXMLStreamReader(in);
+            readNodes(reader);
+            reader.close();
+        }
+        buildRoads();
+    }
+
+    /**
+     * First pass: records the node slots of every allowed way.
+     */
+    private void readWays(XMLStreamReader reader) throws XMLStreamException {
+        long[] refs = new long[64];
+        int refCount = 0;
+        int state = OTHER;
+        boolean validWay = false;
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                String name = reader.getLocalName();
+                if (state == WAY) {
+                    if (name.equals("nd")) {
+                        if (refCount == refs.length) {
+                            refs = Arrays.copyOf(refs, refCount * 2);
+                        }
+                        refs[refCount] = Long.parseLong(reader.getAttributeValue(null, "ref"));
+                        refCount += 1;
+                    } else if (name.equals("tag") && "highway".equals(reader.getAttributeValue(null, "k"))) {
+                        validWay = allowedHighwayTypes.contains(reader.getAttributeValue(null, "v"));
+                    }
+                } else if (name.equals("way")) {
+                    state = WAY;
+                    refCount = 0;
+                    validWay = false;
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT && state == WAY && reader.getLocalName().equals("way")) {
+                if (validWay && refCount > 0) {
+                    addWay(refs, refCount);
+                }
+                state = OTHER;
+            }
+        }
+    }
+
+    /**
+     * Appends the given node references as an allowed way, assigning slots to newly-referenced nodes.
+     */
+    private void addWay(long[] refs, int refCount) {
+        if (wayNodeCount + refCount > wayNodes.length) {
+            wayNodes = Arrays.copyOf(wayNodes, Math.max(wayNodes.length * 2, wayNodeCount + refCount));
+        }
+        for (int i = 0; i < refCount; i += 1) {
+            wayNodes[wayNodeCount] = slots.putIfAbsent(refs[i], slots.size());
+            wayNodeCount += 1;
+        }
+        if (wayCount == wayEnds.length) {
+            wayEnds = Arrays.copyOf(wayEnds, wayCount * 2);
+        }
+        wayEnds[wayCount] = wayNodeCount;
+        wayCount += 1;
+    }
+
+    /**
+     * Second pass: records the coordinates of referenced nodes and the locations of named nodes.
+     */
+    private void readNodes(XMLStreamReader reader) throws XMLStreamException {
+        int state = OTHER;
+        double lat = 0;
+        double lon = 0;
+        int slot = -1;
+        String name = "";
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                String element = reader.getLocalName();
+                if (element.equals("node")) {
+                    state = NODE;
+                    slot = slots.get(Long.parseLong(reader.getAttributeValue(null, "id")));
+                    lat = Double.parseDouble(reader.getAttributeValue(null, "lat"));
+                    lon = Double.parseDouble(reader.getAttributeValue(null, "lon"));
+                    name = "";
+                    if (slot != -1) {
+                        lats[slot] = lat;
+                        lons[slot] = lon;
+                    }
+                } else if (state == NODE && element.equals("tag")
+                        && "name".equals(reader.getAttributeValue(null, "k"))) {
+                    name = normalize(reader.getAttributeValue(null, "v"));
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT && state == NODE
+                    && reader.getLocalName().equals("node")) {
+                if (!name.isBlank()) {
+                    byName.computeIfAbsent(name, k -> new ArrayList<>())
+                            .add(context.getShapeFactory().pointLatLon(lat, lon));
+                }
+                state = OTHER;
+            }
+        }
+    }
+
+    /**
+     * Connects consecutive nodes of each allowed way in both directions, assigning vertex ids in order of first
+     * appearance. Nodes at the same location share one vertex, so that every vertex has a distinct location that
+     * identifies it. Edges touching nodes that were not found in the file are skipped, as are edges between nodes at
+     * the same location.
+     */
+    private void buildRoads() {
+        int[] slotToVertex = new int[slots.size()];
+        Arrays.fill(slotToVertex, -1);
+        List<Point> locations = new ArrayList<>();
+        Map<Point, Integer> byLocation = new HashMap<>();
+        CSRGraph.Builder builder = new CSRGraph.Builder();
+        int start = 0;
+        for (int w = 0; w < wayCount; w += 1) {
+            for (int i = start + 1; i < wayEnds[w]; i += 1) {
+                int a = wayNodes[i - 1];
+                int b = wayNodes[i];
+                if (!Double.isNaN(lats[a]) && !Double.isNaN(lats[b])) {
+                    int from = vertex(a, slotToVertex, locations, byLocation);
+                    int to = vertex(b, slotToVertex, locations, byLocation);
+                    if (from == to) {
+                        continue;
+                    }
+                    builder.addEdge(from, to, context.calcDistance(locations.get(from), locations.get(to)));
+                    builder.addEdge(to, from, context.calcDistance(locations.get(to), locations.get(from)));
+                }
+            }
+            start = wayEnds[w];
+        }
+        vertices = locations.toArray(new Point[0]);
+        roads = builder.ensureSize(vertices.length).build();
+    }
+
+    /**
+     * Returns the vertex id of the given node slot. A node without one yet gets the id of the vertex at its location,
+     * or the next unused id if there is no vertex at its location.
+     */
+    private int vertex(int slot, int[] slotToVertex, List<Point> locations, Map<Point, Integer> byLocation) {
+        if (slotToVertex[slot] == -1) {
+            Point location = context.getShapeFactory().pointLatLon(lats[slot], lons[slot]);
+            Integer vertex = byLocation.putIfAbsent(location, locations.size());
+            if (vertex == null) {
+                vertex = locations.size();
+                locations.add(location);
+            }
+            slotToVertex[slot] = vertex;
+        }
+        return slotToVertex[slot];
+    }
+
+    /**
+     * Returns the name with surrounding whitespace removed and curly quotes replaced by straight quotes.
+     */
+    private static String normalize(String name) {
+        return name.strip()
+                .replace('“', '"')
+                .replace('”', '"')
+                .replace('‘', '\'')
+                .replace('’', '\'');
+    }
+}
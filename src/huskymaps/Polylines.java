@@ -0,0 +1,143 @@
+package huskymaps;
+
+/**
+ * Utilities for route polylines. {@link #simplify(double[], double[], double)} removes points that are closer than a
+ * tolerance to the simplified line, and {@link #encode(double[], double[])} writes coordinates in the
+ * <a href="https://developers.google.com/maps/documentation/utilities/polylinealgorithm">encoded polyline
+ * format</a>: coordinates are rounded to five decimal places, delta-encoded, and written as variable-length base-64
+ * ASCII, so a route costs a few bytes per vertex instead of two JSON numbers.
+ *
+ * @see MapServer
+ */
+final class Polylines {
+    /**
+     * The multiplier applied to each coordinate before rounding.
+     */
+    private static final double PRECISION = 1e5;
+
+    private Polylines() {
+    }
+
+    /**
+     * Returns the indices of the points kept by Douglas-Peucker simplification. The first and last points are always
+     * kept, and every removed point is within the tolerance of the simplified line. Coordinates should be in a space
+     * where distances are uniform, such as pixels, so that a single tolerance applies in every direction.
+     *
+     * @param xs        the x-coordinate of each point.
+     * @param ys        the y-coordinate of each point.
+     * @param tolerance the maximum distance from a removed point to the simplified line.
+     * @return the indices of the kept points in increasing order.
+     * @throws IllegalArgumentException if the arrays have different lengths.
+     */
+    static int[] simplify(double[] xs, double[] ys, double tolerance) {
+        if (xs.length != ys.length) {
+            throw new IllegalArgumentException("Mismatched lengths: " + xs.length + " and " + ys.length);
+        }
+        int n = xs.length;
+        if (n <= 2) {
+            int[] all = new int[n];
+            for (int i = 0; i < n; i += 1) {
+                all[i] = i;
+            }
+            return all;
+        }
+        boolean[] keep = new boolean[n];
+        keep[0] = true;
+        keep[n - 1] = true;
+        // Each pair of stack entries is a range [first, last] whose interior points haven't been considered yet.
+        int[] stack = new int[2 * n];
+        int top = 0;
+        stack[top] = 0;
+        stack[top + 1] = n - 1;
+        top += 2;
+        double squaredTolerance = tolerance * tolerance;
+        int count = 2;
+        while (top > 0) {
+            top -= 2;
+            int first = stack[top];
+            int last = stack[top + 1];
+            int farthest = -1;
+            double farthestDistance = squaredTolerance;
+            for (int i = first + 1; i < last; i += 1) {
+                double distance = squaredSegmentDistance(xs, ys, i, first, last);
+                if (distance > farthestDistance) {
+                    farthest = i;
+                    farthestDistance = distance;
+                }
+            }
+            if (farthest != -1) {
+                keep[farthest] = true;
+                count += 1;
+                stack[top] = first;
+                stack[top + 1] = farthest;
+                stack[top + 2] = farthest;
+                stack[top + 3] = last;
+                top += 4;
+            }
+        }
+        int[] result = new int[count];
+        int j = 0;
+        for (int i = 0; i < n; i += 1) {
+            if (keep[i]) {
+                result[j] = i;
+                j += 1;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the squared distance from point i to the segment between points a and b.
+     */
+    private static double squaredSegmentDistance(double[] xs, double[] ys, int i, int a, int b) {
+        double dx = xs[b] - xs[a];
+        double dy = ys[b] - ys[a];
+        double px = xs[i] - xs[a];
+        double py = ys[i] - ys[a];
+        double length = dx * dx + dy * dy;
+        if (length > 0) {
+            double t = Math.max(0, Math.min(1, (px * dx + py * dy) / length));
+            px -= t * dx;
+            py -= t * dy;
+        }
+        return px * px + py * py;
+    }
+
+    /**
+     * Returns the encoded polyline through the given coordinates.
+     *
+     * @param lats the latitude of each point.
+     * @param lons the longitude of each point.
+     * @return the encoded polyline.
+     * @throws IllegalArgumentException if the arrays have different lengths.
+     */
+    static String encode(double[] lats, double[] lons) {
+        if (lats.length != lons.length) {
+            throw new IllegalArgumentException("Mismatched lengths: " + lats.length + " and " + lons.length);
+        }
+        StringBuilder result = new StringBuilder(lats.length * 8);
+        long prevLat = 0;
+        long prevLon = 0;
+        for (int i = 0; i < lats.length; i += 1) {
+            long lat = Math.round(lats[i] * PRECISION);
+            long lon = Math.round(lons[i] * PRECISION);
+            encodeValue(lat - prevLat, result);
+            encodeValue(lon - prevLon, result);
+            prevLat = lat;
+            prevLon = lon;
+        }
+        return result.toString();
+    }
+
+    /**
+     * Appends the zigzag-encoded value in 5-bit chunks, least significant first, each offset by 63.
+     */
+    private static void encodeValue(long value, StringBuilder result) {
+        long bits = value < 0 ? ~(value << 1) : value << 1;
+        while (bits >= 0x20) {
+            result.append((char) ((0x20 | (bits & 0x1f)) + 63));
+            bits >>= 5;
+        }
+        result.append((char) (bits + 63));
+    }
+}
@@ -0,0 +1,145 @@
+package huskymaps;
+
+import org.locationtech.spatial4j.context.SpatialContext;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Run timing experiments drawing long cross-city routes with and without {@link Polylines#simplify} at each zoom
+ * level, and save a CSV file of the average point counts and render times.
+ */
+class RouteSimplificationExperiments {
+    /**
+     * Number of long routes to draw at each zoom level.
+     */
+    private static final int NUM_ROUTES = 20;
+    /**
+     * Number of random routes to sample when looking for the longest ones.
+     */
+    private static final int NUM_CANDIDATES = 500;
+    /**
+     * Number of times each route is drawn. Making this smaller means experiments run faster.
+     */
+    private static final int NUM_TRIALS = 20;
+    /**
+     * Size of the rendered image in pixels.
+     */
+    private static final int WIDTH = 1280;
+    private static final int HEIGHT = 800;
+    /**
+     * Path to the output CSV file.
+     */
+    private static final String PATH = "simplification.csv";
+
+    public static void main(String[] args) throws Exception {
+        MapGraph map = load();
+        Router router = new Router(map, null);
+        Random random = new Random(373);
+        // Keep the longest of the sampled routes to approximate cross-city trips.
+        List<int[]> routes = new ArrayList<>();
+        for (int i = 0; i < NUM_CANDIDATES; i += 1) {
+            try {
+                int[] route = router.route(
+                        map.location(random.nextInt(map.size())),
+                        map.location(random.nextInt(map.size()))
+                );
+                if (route.length > 0) {
+                    routes.add(route);
+                }
+            } catch (Router.IncompleteRouteException e) {
+                // Skip routes that took too long to find.
+            }
+        }
+        routes.sort((a, b) -> Double.compare(router.meters(b), router.meters(a)));
+        routes = routes.subList(0, Math.min(NUM_ROUTES, routes.size()));
+        System.out.println(routes.size() + " routes selected");
+
+        PrintStream out = new PrintStream(PATH);
+        out.println("zoom,points,simplifiedPoints,fullMillis,simplifiedMillis");
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        for (int zoom = 8; zoom <= 16; zoom += 1) {
+            double lonDPP = 0.3515625 / Math.pow(2, zoom);
+            double latDPP = 0.23689728184 / Math.pow(2, zoom);
+            long totalPoints = 0;
+            long totalSimplifiedPoints = 0;
+            double totalFullTime = 0.0;
+            double totalSimplifiedTime = 0.0;
+            for (int[] route : routes) {
+                // Center the view on the middle of the route.
+                int middle = route[route.length / 2];
+                double[] xs = new double[route.length];
+                double[] ys = new double[route.length];
+                for (int i = 0; i < route.length; i += 1) {
+                    xs[i] = (map.lon(route[i]) - map.lon(middle)) * (1 / lonDPP) + (WIDTH / 2);
+                    ys[i] = (map.lat(middle) - map.lat(route[i])) * (1 / latDPP) + (HEIGHT / 2);
+                }
+                int[] all = new int[route.length];
+                for (int i = 0; i < all.length; i += 1) {
+                    all[i] = i;
+                }
+                totalPoints += all.length;
+                for (int i = 0; i < NUM_TRIALS; i += 1) {
+                    long fullStart = System.nanoTime();
+                    draw(image, xs, ys, all);
+                    totalFullTime += (double) (System.nanoTime() - fullStart) / 1_000_000;
+
+                    long simplifiedStart = System.nanoTime();
+                    int[] kept = Polylines.simplify(xs, ys, MapServer.SIMPLIFY_TOLERANCE);
+                    draw(image, xs, ys, kept);
+                    totalSimplifiedTime += (double) (System.nanoTime() - simplifiedStart) / 1_000_000;
+                    if (i == 0) {
+                        totalSimplifiedPoints += kept.length;
+                    }
+                }
+            }
+            int runs = routes.size() * NUM_TRIALS;
+            out.printf("%d,%.1f,%.1f,%.6f,%.6f%n", zoom,
+                    (double) totalPoints / routes.size(),
+                    (double) totalSimplifiedPoints / routes.size(),
+                    totalFullTime / runs,
+                    totalSimplifiedTime / runs);
+            System.out.printf("zoom %d: %.1f ms full, %.1f ms simplified%n",
+                    zoom, totalFullTime / runs, totalSimplifiedTime / runs);
+        }
+        out.close();
+    }
+
+    /**
+     * Draws the kept points of the route the same way {@link MapServer} does.
+     */
+    private static void draw(BufferedImage image, double[] xs, double[] ys, int[] kept) {
+        int[] xPoints = new int[kept.length];
+        int[] yPoints = new int[kept.length];
+        for (int i = 0; i < kept.length; i += 1) {
+            xPoints[i] = (int) xs[kept[i]];
+            yPoints[i] = (int) ys[kept[i]];
+        }
+        Graphics2D g2d = image.createGraphics();
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g2d.setColor(new Color(255, 255, 255));
+        g2d.setStroke(new BasicStroke(10.0f, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+        g2d.drawPolyline(xPoints, yPoints, xPoints.length);
+        g2d.setColor(new Color(108, 181, 230));
+        g2d.setStroke(new BasicStroke(5.0f, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+        g2d.drawPolyline(xPoints, yPoints, xPoints.length);
+        g2d.dispose();
+    }
+
+    /**
+     * Returns the map from the prebuilt snapshot if there is one, otherwise by parsing the OSM and places files.
+     */
+    private static MapGraph load() throws Exception {
+        SpatialContext context = SpatialContext.GEO;
+        if (Files.isReadable(Path.of(MapSnapshot.SNAPSHOT_PATH))) {
+            return MapSnapshot.read(Path.of(MapSnapshot.SNAPSHOT_PATH), context);
+        }
+        return new MapGraph("data/huskymaps/seattle-small.osm.gz", "data/huskymaps/places.tsv.gz", context);
+    }
+}
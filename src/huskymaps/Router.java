@@ -0,0 +1,176 @@
+package huskymaps;
+
+import graphs.CSRGraph;
+import graphs.shortestpaths.BidirectionalAStarSolver;
+import graphs.shortestpaths.ContractionHierarchy;
+import graphs.shortestpaths.ContractionHierarchySolver;
+import graphs.shortestpaths.LandmarkGraph;
+import graphs.shortestpaths.SearchOptions;
+import graphs.shortestpaths.SearchStatus;
+import org.locationtech.spatial4j.distance.DistanceUtils;
+import org.locationtech.spatial4j.shape.Point;
+
+import java.time.Duration;
+import java.util.Locale;
+
+/**
+ * Finds driving routes between arbitrary points on a {@link MapGraph}. Routes are answered by a
+ * {@link ContractionHierarchy} when one is available, and otherwise by bidirectional A* search with a landmark
+ * heuristic and a time budget.
+ *
+ * @see MapServer
+ * @see ContractionHierarchySolver
+ * @see BidirectionalAStarSolver
+ */
+final class Router {
+    /**
+     * Number of ALT landmarks used to strengthen the A* heuristic when there is no contraction hierarchy.
+     */
+    private static final int NUM_LANDMARKS = 8;
+    /**
+     * Search budget for each A* route, bounding the CPU time a single request can use.
+     */
+    private static final SearchOptions ROUTE_OPTIONS = SearchOptions.STOP_AT_GOAL.withTimeout(Duration.ofMillis(250));
+
+    private final MapGraph map;
+    private final ContractionHierarchy hierarchy;
+    private final LandmarkGraph<Point> landmarks;
+    private final CSRGraph reverse;
+    private final Metrics metrics;
+
+    /**
+     * Constructs a router for the map, precomputing the A* landmarks and reverse graph if there is no hierarchy.
+     *
+     * @param map       the map to route on.
+     * @param hierarchy the contraction hierarchy for the map, or null to route with A* instead.
+     */
+    Router(MapGraph map, ContractionHierarchy hierarchy) {
+        this(map, hierarchy, new Metrics());
+    }
+
+    /**
+     * Constructs a router for the map that records the outcome of each search in the given registry.
+     *
+     * @param map       the map to route on.
+     * @param hierarchy the contraction hierarchy for the map, or null to route with A* instead.
+     * @param metrics   the registry to record search outcomes and A* settled vertex counts in.
+     */
+    Router(MapGraph map, ContractionHierarchy hierarchy, Metrics metrics) {
+        this.map = map;
+        this.hierarchy = hierarchy;
+        this.metrics = metrics;
+        if (hierarchy == null) {
+            this.landmarks = new LandmarkGraph<>(map, map::vertex, NUM_LANDMARKS);
+            this.reverse = CSRGraph.reverse(map);
+        } else {
+            this.landmarks = null;
+            this.reverse = null;
+        }
+    }
+
+    /**
+     * Returns the vertex ids of the shortest route between the map vertices closest to the start and the goal.
+     *
+     * @param start the start location.
+     * @param goal  the goal location.
+     * @return the vertex ids along the route, or an empty array if the goal is unreachable.
+     * @throws IncompleteRouteException if the search ran out of budget before finding the route.
+     */
+    int[] route(Point start, Point goal) {
+        return route(snap(start), snap(goal));
+    }
+
+    /**
+     * Returns the vertex id of the map vertex closest to the location.
+     *
+     * @param location the location to snap.
+     * @return the vertex id of the closest map vertex.
+     */
+    int snap(Point location) {
+        return map.vertex(map.closest(location));
+    }
+
+    /**
+     * Returns the vertex ids of the shortest route between the given map vertices.
+     *
+     * @param start the start vertex id.
+     * @param goal  the goal vertex id.
+     * @return the vertex ids along the route, or an empty array if the goal is unreachable.
+     * @throws IncompleteRouteException if the search ran out of budget before finding the route.
+     */
+    int[] route(int start, int goal) {
+        if (hierarchy != null) {
+            ContractionHierarchySolver solver = new ContractionHierarchySolver(hierarchy, start, goal);
+            boolean found = solver.distance() != Double.POSITIVE_INFINITY;
+            routes("hierarchy", found ? "found" : "unreachable").increment();
+            return found ? solver.solution() : new int[0];
+        }
+        BidirectionalAStarSolver solver = new BidirectionalAStarSolver(landmarks, reverse, start, goal, ROUTE_OPTIONS);
+        metrics.histogram("huskymaps_route_settled", "Vertices settled by each A* route search.", Metrics.COUNT)
+                .record(solver.settled());
+        // A search that ran out of time says nothing about whether there is a route, so it must not look like there
+        // is none.
+        if (!solver.status().isComplete()) {
+            routes("astar", solver.status().name().toLowerCase(Locale.ROOT)).increment();
+            throw new IncompleteRouteException(solver.status());
+        }
+        if (solver.distance() == Double.POSITIVE_INFINITY) {
+            routes("astar", "unreachable").increment();
+            return new int[0];
+        }
+        routes("astar", "found").increment();
+        return solver.solution();
+    }
+
+    /**
+     * Returns the length of the route in meters.
+     *
+     * @param route the vertex ids along the route.
+     * @return the length of the route in meters.
+     */
+    double meters(int[] route) {
+        double degrees = 0.0;
+        for (int i = 1; i < route.length; i += 1) {
+            degrees += map.estimatedDistance(route[i - 1], route[i]);
+        }
+        return degrees * DistanceUtils.DEG_TO_KM * 1000;
+    }
+
+    /**
+     * Returns the counter of route searches by solver and outcome. Searches that ran out of time are counted with the
+     * outcome "timeout".
+     */
+    private Metrics.Counter routes(String solver, String outcome) {
+        return metrics.counter("huskymaps_routes_total", "Route searches by solver and outcome.",
+                "solver", solver, "outcome", outcome);
+    }
+
+    /**
+     * Thrown when a route search stops before finding the shortest route, such as when it runs out of time. Whether
+     * there is a route is unknown, so the request may succeed if it is retried when the server is less busy.
+     */
+    static final class IncompleteRouteException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private final SearchStatus status;
+
+        /**
+         * Constructs an exception for a search that stopped for the given reason.
+         *
+         * @param status the reason the search stopped.
+         */
+        IncompleteRouteException(SearchStatus status) {
+            super("Route search stopped early: " + status.name().toLowerCase(Locale.ROOT));
+            this.status = status;
+        }
+
+        /**
+         * Returns the reason the search stopped.
+         *
+         * @return the reason the search stopped.
+         */
+        SearchStatus status() {
+            return status;
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package huskymaps;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+/**
+ * Thread-safe segmented LRU (SLRU) cache bounded by the total weight of its entries in bytes. New entries enter a
+ * probationary segment and are promoted to a protected segment when they are read again, so a burst of one-off
+ * requests only evicts other one-off entries instead of flushing the frequently-requested ones. Entries demoted from
+ * the protected segment get another chance as the most-recently-used probationary entries.
+ *
+ * @param <K> the type of keys.
+ * @param <V> the type of values.
+ * @see MapServer
+ */
+final class SegmentedLruCache<K, V> {
+    /**
+     * Estimated per-entry overhead in bytes of the key, the map entry, and the value object header.
+     */
+    private static final long ENTRY_OVERHEAD = 96;
+    /**
+     * Fraction of the capacity reserved for the protected segment.
+     */
+    private static final double PROTECTED_FRACTION = 0.8;
+
+    private final ToLongFunction<V> weigher;
+    private final long maxBytes;
+    private final long maxProtectedBytes;
+    /**
+     * The entries that have been read at most once since they were added, in least-recently-used order.
+     */
+    private final LinkedHashMap<K, V> probation;
+    /**
+     * The entries that have been read more than once, in least-recently-used order.
+     */
+    private final LinkedHashMap<K, V> protect;
+    private long probationBytes;
+    private long protectedBytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * Constructs an empty cache.
+     *
+     * @param maxBytes the maximum total weight of all entries.
+     * @param weigher  the function returning the size in bytes of each value.
+     * @throws IllegalArgumentException if maxBytes is negative.
+     */
+    SegmentedLruCache(long maxBytes, ToLongFunction<V> weigher) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("Negative maxBytes: " + maxBytes);
+        }
+        this.weigher = weigher;
+        this.maxBytes = maxBytes;
+        this.maxProtectedBytes = (long) (maxBytes * PROTECTED_FRACTION);
+        this.probation = new LinkedHashMap<>(16, 0.75f, true);
+        this.protect = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Returns the value associated with the key, or null if the key is not present.
+     */
+    synchronized V get(K key) {
+        V value = peek(key);
+        if (value == null) {
+            misses += 1;
+        } else {
+            hits += 1;
+        }
+        return value;
+    }
+
+    /**
+     * Returns the value associated with the key, or null if the key is not present, without counting a hit or miss.
+     * Like {@link #get}, finding the value counts as a use of the entry.
+     */
+    synchronized V peek(K key) {
+        V value = protect.get(key);
+        if (value != null) {
+            return value;
+        }
+        value = probation.remove(key);
+        if (value == null) {
+            return null;
+        }
+        long weight = weight(value);
+        probationBytes -= weight;
+        protect.put(key, value);
+        protectedBytes += weight;
+        demote();
+        return value;
+    }
+
+    /**
+     * Associates the key with the value, replacing any existing value. Values too large to ever fit are not cached.
+     */
+    synchronized void put(K key, V value) {
+        remove(key);
+        long weight = weight(value);
+        if (weight > maxBytes - maxProtectedBytes) {
+            return;
+        }
+        probation.put(key, value);
+        probationBytes += weight;
+        evict();
+    }
+
+    /**
+     * Removes the key and its value if present.
+     */
+    synchronized void remove(K key) {
+        V value = probation.remove(key);
+        if (value != null) {
+            probationBytes -= weight(value);
+        }
+        value = protect.remove(key);
+        if (value != null) {
+            protectedBytes -= weight(value);
+        }
+    }
+
+    /**
+     * Returns the number of entries in this cache.
+     */
+    synchronized int size() {
+        return probation.size() + protect.size();
+    }
+
+    /**
+     * Returns the total weight of all entries in this cache.
+     */
+    synchronized long bytes() {
+        return probationBytes + protectedBytes;
+    }
+
+    /**
+     * Returns the maximum total weight of all entries in this cache.
+     */
+    long maxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Returns the number of reads that found a value.
+     */
+    synchronized long hits() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of reads that did not find a value.
+     */
+    synchronized long misses() {
+        return misses;
+    }
+
+    /**
+     * Returns the number of entries evicted to stay within the maximum weight.
+     */
+    synchronized long evictions() {
+        return evictions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "SegmentedLruCache{size=" + size() + ", bytes=" + bytes() + ", maxBytes=" + maxBytes
+                + ", hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + "}";
+    }
+
+    /**
+     * Moves least-recently-used protected entries to the probationary segment until the protected segment fits, then
+     * evicts to make room.
+     */
+    private void demote() {
+        Iterator<Map.Entry<K, V>> iterator = protect.entrySet().iterator();
+        while (protectedBytes > maxProtectedBytes && iterator.hasNext()) {
+            Map.Entry<K, V> entry = iterator.next();
+            iterator.remove();
+            long weight = weight(entry.getValue());
+            protectedBytes -= weight;
+            probation.put(entry.getKey(), entry.getValue());
+            probationBytes += weight;
+        }
+        evict();
+    }
+
+    /**
+     * Evicts least-recently-used probationary entries until all entries fit.
+     */
+    private void evict() {
+        Iterator<Map.Entry<K, V>> iterator = probation.entrySet().iterator();
+        while (probationBytes + protectedBytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<K, V> entry = iterator.next();
+            iterator.remove();
+            probationBytes -= weight(entry.getValue());
+            evictions += 1;
+        }
+    }
+
+    private long weight(V value) {
+        return weigher.applyAsLong(value) + ENTRY_OVERHEAD;
+    }
+}
@@ -0,0 +1,113 @@
+package huskymaps;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces concurrent loads of the same key into a single call. The first caller for a key runs the loader while
+ * later callers wait for its result. Results are not remembered after the load finishes, so a failed load is shared
+ * with every caller that was waiting for it but is retried by the next caller.
+ *
+ * @param <K> the type of keys.
+ * @param <V> the type of loaded values.
+ * @see MapServer
+ */
+final class SingleFlight<K, V> {
+    private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight;
+    private final AtomicLong loads;
+    private final AtomicLong coalesced;
+
+    /**
+     * Constructs an instance with no loads in flight.
+     */
+    SingleFlight() {
+        this.inFlight = new ConcurrentHashMap<>();
+        this.loads = new AtomicLong();
+        this.coalesced = new AtomicLong();
+    }
+
+    /**
+     * Returns the value loaded for the key, either by running the loader or by waiting for a concurrent call that is
+     * already loading the same key.
+     *
+     * @throws IOException if the loader failed, either in this thread or in the thread this call waited for.
+     * @throws RuntimeException if the loader threw it, either in this thread or in the thread this call waited for.
+     */
+    V load(K key, Loader<V> loader) throws IOException {
+        CompletableFuture<V> future = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            coalesced.incrementAndGet();
+            return await(existing);
+        }
+        loads.incrementAndGet();
+        try {
+            V value = loader.load();
+            future.complete(value);
+            return value;
+        } catch (Throwable e) {
+            // Complete on errors too, or the callers waiting for this load would block forever.
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    /**
+     * Returns the number of loader calls.
+     */
+    long loads() {
+        return loads.get();
+    }
+
+    /**
+     * Returns the number of calls that waited for another call's load instead of running the loader.
+     */
+    long coalesced() {
+        return coalesced.get();
+    }
+
+    /**
+     * Waits for another thread's load and rethrows its failure. Unchecked failures, such as a rejection by a full
+     * {@link Bulkhead}, are rethrown as they are so that every waiter is answered the same way as the loading thread.
+     * Checked failures are wrapped with this thread's stack trace.
+     */
+    private static <V> V await(CompletableFuture<V> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a concurrent load");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException("Concurrent load failed", cause);
+        }
+    }
+
+    /**
+     * Loads the value for a key.
+     *
+     * @param <V> the type of loaded values.
+     */
+    @FunctionalInterface
+    interface Loader<V> {
+        /**
+         * Returns the loaded value.
+         *
+         * @return the loaded value.
+         * @throws IOException if the value cannot be loaded.
+         */
+        V load() throws IOException;
+    }
+}
@@ -0,0 +1,115 @@
+package huskymaps;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Compare the failures seen by the caller that runs a {@link SingleFlight} load against those seen by the callers
+ * coalesced onto it to check that they are answered the same way. A load rejected by a full {@link Bulkhead} must
+ * reach every waiter as the same {@link RejectedExecutionException}, which the server answers with a 503 the client
+ * can retry, and a load that fails with an I/O error must reach every waiter as an {@link IOException}.
+ *
+ * @see SingleFlight
+ * @see Bulkhead
+ */
+class SingleFlightMultiTest {
+    /**
+     * Number of callers waiting for each load.
+     */
+    private static final int WAITERS = 8;
+
+    /**
+     * Returns the failure seen by each caller of a load, the loading caller first, or null for a caller that succeeded.
+     * The loader runs the failure only once every waiter has joined the load.
+     */
+    private static List<Throwable> failures(SingleFlight.Loader<String> failure) throws Exception {
+        SingleFlight<String, String> loads = new SingleFlight<>();
+        CountDownLatch started = new CountDownLatch(1);
+        ExecutorService threads = Executors.newFixedThreadPool(WAITERS + 1);
+        List<Future<Throwable>> futures = new ArrayList<>();
+        futures.add(threads.submit(() -> call(loads, () -> {
+            started.countDown();
+            while (loads.coalesced() < WAITERS) {
+                Thread.yield();
+            }
+            return failure.load();
+        })));
+        started.await();
+        for (int i = 0; i < WAITERS; i += 1) {
+            futures.add(threads.submit(() -> call(loads, () -> "not coalesced")));
+        }
+        List<Throwable> result = new ArrayList<>();
+        for (Future<Throwable> future : futures) {
+            result.add(future.get());
+        }
+        threads.shutdown();
+        return result;
+    }
+
+    /**
+     * Returns the failure of loading the key, or null if the load succeeded.
+     */
+    private static Throwable call(SingleFlight<String, String> loads, SingleFlight.Loader<String> loader) {
+        try {
+            loads.load("key", loader);
+            return null;
+        } catch (IOException | RuntimeException e) {
+            return e;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int failures = 0;
+
+        // A bulkhead whose only permit is held, so that the load is rejected without waiting.
+        Bulkhead upstream = new Bulkhead("test", 1, 0, Duration.ZERO, new Metrics());
+        CountDownLatch held = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread holder = new Thread(() -> {
+            try {
+                upstream.call(() -> {
+                    held.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return null;
+                });
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        holder.start();
+        held.await();
+        List<Throwable> rejected = failures(() -> upstream.call(() -> "image"));
+        release.countDown();
+        holder.join();
+        for (int i = 0; i < rejected.size(); i += 1) {
+            if (!(rejected.get(i) instanceof RejectedExecutionException)) {
+                failures += 1;
+                System.out.println((i == 0 ? "Loader" : "Waiter " + i) + " got " + rejected.get(i)
+                        + " instead of the rejection FAIL!");
+            }
+        }
+
+        List<Throwable> failed = failures(() -> {
+            throw new IOException("upstream failed");
+        });
+        for (int i = 0; i < failed.size(); i += 1) {
+            if (!(failed.get(i) instanceof IOException)) {
+                failures += 1;
+                System.out.println((i == 0 ? "Loader" : "Waiter " + i) + " got " + failed.get(i)
+                        + " instead of an IOException FAIL!");
+            }
+        }
+        System.out.println("SingleFlight " + (failures == 0 ? "PASS!" : "FAIL! (" + failures + ")"));
+    }
+}
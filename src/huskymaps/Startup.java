@@ -0,0 +1,137 @@
+package huskymaps;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Dependency-aware pipeline of startup stages. Each stage runs on a bounded executor as soon as the stages it depends
+ * on are done, so independent work such as parsing different files overlaps on multi-core hosts. The time each stage
+ * started and took is recorded for a startup report.
+ *
+ * @see MapServer
+ */
+final class Startup {
+    private final Executor executor;
+    private final long start;
+    /**
+     * The stages in the order they were added.
+     */
+    private final List<Stage<?>> stages;
+
+    /**
+     * Constructs an empty pipeline whose stages run on the executor.
+     *
+     * @param executor the executor that runs each stage.
+     */
+    Startup(Executor executor) {
+        this.executor = executor;
+        this.start = System.nanoTime();
+        this.stages = new ArrayList<>();
+    }
+
+    /**
+     * Adds a stage that runs the work once all of its dependencies are done. If any dependency fails, the work does
+     * not run and the stage fails with the same exception.
+     *
+     * @param name         the name of the stage in the startup report.
+     * @param work         the work of the stage, which may join its dependencies without blocking.
+     * @param dependencies the stages that must be done before this stage starts.
+     * @param <T>          the type of the result.
+     * @return a future that completes with the result of the work.
+     */
+    synchronized <T> CompletableFuture<T> stage(String name, Work<T> work, CompletableFuture<?>... dependencies) {
+        Stage<T> stage = new Stage<>(name);
+        stage.future = CompletableFuture.allOf(dependencies).thenApplyAsync(ignored -> {
+            stage.started = System.nanoTime();
+            try {
+                return work.run();
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            } finally {
+                stage.finished = System.nanoTime();
+            }
+        }, executor);
+        stages.add(stage);
+        return stage.future;
+    }
+
+    /**
+     * Returns a future that completes when every stage added so far is done, or exceptionally if any stage failed.
+     *
+     * @return a future that completes when every stage is done.
+     */
+    synchronized CompletableFuture<Void> done() {
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[stages.size()];
+        for (int i = 0; i < futures.length; i += 1) {
+            futures[i] = stages.get(i).future;
+        }
+        return CompletableFuture.allOf(futures);
+    }
+
+    /**
+     * Returns a report of when each stage started and how long it took, relative to the construction of this
+     * pipeline. Stages still waiting for their dependencies, or whose dependencies failed, are reported as not started.
+     *
+     * @return the multi-line startup report.
+     */
+    synchronized String report() {
+        StringBuilder report = new StringBuilder();
+        int width = 0;
+        for (Stage<?> stage : stages) {
+            width = Math.max(width, stage.name.length());
+        }
+        long end = start;
+        for (Stage<?> stage : stages) {
+            report.append(String.format("  %-" + width + "s  ", stage.name));
+            if (stage.finished == 0) {
+                report.append("not started\n");
+                continue;
+            }
+            report.append(String.format("%6.2fs at %6.2fs", (stage.finished - stage.started) / 1e9,
+                    (stage.started - start) / 1e9));
+            report.append(stage.future.isCompletedExceptionally() ? "  failed\n" : "\n");
+            end = Math.max(end, stage.finished);
+        }
+        return String.format("Finished stages in %.2fs%n", (end - start) / 1e9) + report;
+    }
+
+    /**
+     * A named stage and its timing.
+     *
+     * @param <T> the type of the result.
+     */
+    private static final class Stage<T> {
+        final String name;
+        CompletableFuture<T> future;
+        /**
+         * The times in nanoseconds that the work started and finished, or 0 if it has not.
+         */
+        volatile long started;
+        volatile long finished;
+
+        Stage(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * The work of one stage.
+     *
+     * @param <T> the type of the result.
+     */
+    @FunctionalInterface
+    interface Work<T> {
+        /**
+         * Runs the work and returns its result.
+         *
+         * @return the result.
+         * @throws Exception if the work failed.
+         */
+        T run() throws Exception;
+    }
+}
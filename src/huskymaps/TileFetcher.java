@@ -0,0 +1,159 @@
+package huskymaps;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fetches map images from the upstream API over a shared {@link HttpClient}, which keeps connections alive between
+ * requests and negotiates HTTP/2 when the server supports it. Each attempt has a timeout, and failed attempts that
+ * might succeed later (connection errors, timeouts, 429, and 5xx responses) are retried with exponential backoff and
+ * full jitter. Images are returned as the raw response bytes so that they can be cached without decoding.
+ *
+ * @see MapServer
+ */
+final class TileFetcher {
+    /**
+     * Base delay before the first retry. Each later retry waits up to twice as long as the one before.
+     */
+    static final long BACKOFF_MILLIS = 100;
+
+    private final HttpClient client;
+    private final Duration requestTimeout;
+    private final int maxAttempts;
+    private final Metrics.Counter retries;
+
+    /**
+     * Constructs a fetcher with its own connection pool.
+     *
+     * @param connectTimeout the maximum time to establish a connection.
+     * @param requestTimeout the maximum time for each attempt, from sending the request to receiving the full body.
+     * @param maxAttempts    the maximum number of attempts for each image, including the first.
+     * @param metrics        the registry to count retries in.
+     * @throws IllegalArgumentException if maxAttempts is not positive.
+     */
+    TileFetcher(Duration connectTimeout, Duration requestTimeout, int maxAttempts, Metrics metrics) {
+        if (maxAttempts <= 0) {
+            throw new IllegalArgumentException("Invalid attempts: " + maxAttempts);
+        }
+        this.client = HttpClient.newBuilder()
+                .connectTimeout(connectTimeout)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .build();
+        this.requestTimeout = requestTimeout;
+        this.maxAttempts = maxAttempts;
+        this.retries = metrics.counter("huskymaps_upstream_retries_total", "Upstream image fetches that were retried.");
+    }
+
+    /**
+     * Returns the image bytes at the URI, waiting for the fetch to complete.
+     *
+     * @param uri the URI of the image.
+     * @return the image bytes.
+     * @throws InterruptedIOException if the thread was interrupted while waiting.
+     * @throws IOException            if every attempt failed or the response was not an image.
+     */
+    byte[] fetch(URI uri) throws IOException {
+        try {
+            return fetchAsync(uri).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while fetching " + uri.getPath());
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Failed to fetch " + uri.getPath(), e.getCause());
+        }
+    }
+
+    /**
+     * Returns a future that completes with the image bytes at the URI, or exceptionally with an {@link IOException}
+     * if every attempt failed or the response was not an image.
+     *
+     * @param uri the URI of the image.
+     * @return a future that completes with the image bytes.
+     */
+    CompletableFuture<byte[]> fetchAsync(URI uri) {
+        HttpRequest request = HttpRequest.newBuilder(uri).timeout(requestTimeout).GET().build();
+        return attempt(request, 1);
+    }
+
+    /**
+     * Sends the request, retrying failures that might be transient until the attempt limit.
+     */
+    private CompletableFuture<byte[]> attempt(HttpRequest request, int attempt) {
+        return client.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray())
+                .handle((response, error) -> {
+                    IOException failure = error == null ? check(response) : asIOException(error);
+                    if (failure == null) {
+                        return CompletableFuture.completedFuture(response.body());
+                    }
+                    if (attempt >= maxAttempts || !retryable(response, error)) {
+                        return CompletableFuture.<byte[]>failedFuture(failure);
+                    }
+                    retries.increment();
+                    long delay = ThreadLocalRandom.current().nextLong(BACKOFF_MILLIS << (attempt - 1)) + 1;
+                    return CompletableFuture.supplyAsync(
+                            () -> request, CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS)
+                    ).thenCompose(r -> attempt(r, attempt + 1));
+                })
+                .thenCompose(future -> future);
+    }
+
+    /**
+     * Returns the failure for an unsuccessful or non-image response, or null if the response is an image.
+     */
+    private static IOException check(HttpResponse<byte[]> response) {
+        if (response.statusCode() != 200) {
+            return new IOException("Upstream returned " + response.statusCode() + " for " + response.uri().getPath());
+        }
+        String type = response.headers().firstValue("Content-Type").orElse("");
+        if (!type.startsWith("image/")) {
+            return new IOException("Not an image: " + response.uri().getPath());
+        }
+        return null;
+    }
+
+    /**
+     * Returns whether a failed attempt might succeed if retried.
+     */
+    private static boolean retryable(HttpResponse<byte[]> response, Throwable error) {
+        if (response == null) {
+            // Connection errors and timeouts, but not programming errors.
+            return unwrap(error) instanceof IOException;
+        }
+        int status = response.statusCode();
+        return status == 429 || status >= 500;
+    }
+
+    /**
+     * Returns the underlying I/O failure of an asynchronous send.
+     */
+    private static IOException asIOException(Throwable error) {
+        Throwable cause = unwrap(error);
+        if (cause instanceof IOException) {
+            return (IOException) cause;
+        }
+        return new IOException(cause);
+    }
+
+    /**
+     * Returns the cause of a completion exception, or the error itself if it is not one.
+     */
+    private static Throwable unwrap(Throwable error) {
+        if (error instanceof CompletionException && error.getCause() != null) {
+            return error.getCause();
+        }
+        return error;
+    }
+}
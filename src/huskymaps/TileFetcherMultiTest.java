@@ -0,0 +1,179 @@
+package huskymaps;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpTimeoutException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Run {@link TileFetcher} against a local server with scripted failures to check that it retries what might succeed
+ * later and nothing else. A server error followed by an image must be retried once after a jittered delay within the
+ * first backoff window, a 404 must not be retried, and a server that never answers must fail every attempt on the
+ * fetch timeout. The fetcher uses the same timeouts and attempt limit as {@link MapServer}.
+ *
+ * @see TileFetcher
+ */
+class TileFetcherMultiTest {
+    /**
+     * Number of server errors followed by images to fetch.
+     */
+    private static final int TRIALS = 20;
+    /**
+     * Allowance in milliseconds for scheduling and the local round trip on top of the backoff delay.
+     */
+    private static final long SLACK_MILLIS = 200;
+    /**
+     * Bytes served as the image, which the fetcher must return unchanged.
+     */
+    private static final byte[] IMAGE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+
+    /**
+     * The times in nanoseconds that each path was requested.
+     */
+    private static final Map<String, List<Long>> arrivals = new ConcurrentHashMap<>();
+    /**
+     * Released once the checks are done, so that hung responses can finish.
+     */
+    private static final CountDownLatch done = new CountDownLatch(1);
+
+    /**
+     * Answers the first request for each /flaky path with a server error and later requests with the image.
+     */
+    private static void flaky(HttpExchange exchange) throws IOException {
+        if (arrive(exchange) == 1) {
+            respond(exchange, 500, "text/plain", new byte[0]);
+        } else {
+            respond(exchange, 200, "image/png", IMAGE);
+        }
+    }
+
+    /**
+     * Answers every request with a 404, which is not worth retrying.
+     */
+    private static void missing(HttpExchange exchange) throws IOException {
+        arrive(exchange);
+        respond(exchange, 404, "text/plain", new byte[0]);
+    }
+
+    /**
+     * Holds every request without answering until the checks are done.
+     */
+    private static void hang(HttpExchange exchange) throws IOException {
+        arrive(exchange);
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        exchange.close();
+    }
+
+    /**
+     * Records the arrival of the request and returns how many requests for its path have arrived so far.
+     */
+    private static int arrive(HttpExchange exchange) {
+        List<Long> times = arrivals.computeIfAbsent(exchange.getRequestURI().getPath(),
+                k -> Collections.synchronizedList(new ArrayList<>()));
+        times.add(System.nanoTime());
+        return times.size();
+    }
+
+    private static void respond(HttpExchange exchange, int status, String type, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", type);
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static long millis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    public static void main(String[] args) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/flaky/", TileFetcherMultiTest::flaky);
+        server.createContext("/missing/", TileFetcherMultiTest::missing);
+        server.createContext("/hang/", TileFetcherMultiTest::hang);
+        ExecutorService executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.start();
+        String base = "http://localhost:" + server.getAddress().getPort();
+        TileFetcher fetcher = new TileFetcher(
+                MapServer.CONNECT_TIMEOUT, MapServer.FETCH_TIMEOUT, MapServer.FETCH_ATTEMPTS, new Metrics()
+        );
+        int failures = 0;
+        try {
+            // A server error is retried once, after a delay within the first backoff window.
+            long minGap = Long.MAX_VALUE;
+            long maxGap = 0;
+            for (int trial = 0; trial < TRIALS; trial += 1) {
+                String path = "/flaky/" + trial;
+                byte[] image = fetcher.fetch(URI.create(base + path));
+                List<Long> times = arrivals.get(path);
+                if (!Arrays.equals(image, IMAGE) || times.size() != 2) {
+                    failures += 1;
+                    System.out.println(path + " took " + times.size() + " attempts FAIL!");
+                    continue;
+                }
+                long gap = times.get(1) - times.get(0);
+                minGap = Math.min(minGap, gap);
+                maxGap = Math.max(maxGap, gap);
+                if (millis(gap) < 1 || millis(gap) > TileFetcher.BACKOFF_MILLIS + SLACK_MILLIS) {
+                    failures += 1;
+                    System.out.println(path + " retried after " + millis(gap) + "ms FAIL!");
+                }
+            }
+            System.out.println("Retried server errors after " + millis(minGap) + "ms to " + millis(maxGap) + "ms");
+
+            // A client error is not retried.
+            try {
+                fetcher.fetch(URI.create(base + "/missing/0"));
+                failures += 1;
+                System.out.println("/missing/0 returned an image FAIL!");
+            } catch (IOException e) {
+                if (arrivals.get("/missing/0").size() != 1) {
+                    failures += 1;
+                    System.out.println("/missing/0 took " + arrivals.get("/missing/0").size() + " attempts FAIL!");
+                }
+            }
+
+            // A server that never answers times out on every attempt.
+            long start = System.nanoTime();
+            try {
+                fetcher.fetch(URI.create(base + "/hang/0"));
+                failures += 1;
+                System.out.println("/hang/0 returned an image FAIL!");
+            } catch (IOException e) {
+                long elapsed = System.nanoTime() - start;
+                long timeout = MapServer.FETCH_TIMEOUT.toMillis();
+                long backoff = TileFetcher.BACKOFF_MILLIS * ((1L << (MapServer.FETCH_ATTEMPTS - 1)) - 1);
+                int attempts = arrivals.get("/hang/0").size();
+                System.out.println("Gave up on a hung server after " + attempts + " attempts in " + millis(elapsed)
+                        + "ms");
+                if (!(e instanceof HttpTimeoutException) || attempts != MapServer.FETCH_ATTEMPTS
+                        || millis(elapsed) < MapServer.FETCH_ATTEMPTS * timeout
+                        || millis(elapsed) > MapServer.FETCH_ATTEMPTS * (timeout + SLACK_MILLIS) + backoff) {
+                    failures += 1;
+                    System.out.println("/hang/0 failed with " + e + " FAIL!");
+                }
+            }
+        } finally {
+            done.countDown();
+            server.stop(0);
+            executor.shutdown();
+        }
+        System.out.println("TileFetcher " + (failures == 0 ? "PASS!" : "FAIL! (" + failures + ")"));
+    }
+}
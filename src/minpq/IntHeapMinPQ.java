@@ -0,0 +1,197 @@
+package minpq;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Binary heap priority queue of {@code int} items in the range [0, capacity) with {@code double} priority values.
+ * This is the primitive counterpart to {@link OptimizedHeapMinPQ}: the item-to-index map is an array, so no
+ * operation boxes or allocates. Cannot contain duplicate items.
+ *
+ * @see ExtrinsicMinPQ
+ * @see OptimizedHeapMinPQ
+ */
+public class IntHeapMinPQ {
+    /**
+     * The items in heap order, 1-indexed.
+     */
+    private final int[] heap;
+    /**
+     * The priority value of each item, indexed by item.
+     */
+    private final double[] priorities;
+    /**
+     * The heap index of each item, or 0 if the item is not present.
+     */
+    private final int[] itemToIndex;
+    private int size;
+
+    /**
+     * Constructs an empty instance that can hold the items in the range [0, capacity).
+     *
+     * @param capacity one more than the largest item that can be added.
+     */
+    public IntHeapMinPQ(int capacity) {
+        heap = new int[capacity + 1];
+        priorities = new double[capacity];
+        itemToIndex = new int[capacity];
+        size = 0;
+    }
+
+    /**
+     * Adds an item with the given priority value.
+     *
+     * @param item     the element to add.
+     * @param priority the priority value for the item.
+     * @throws IllegalArgumentException if item is already present.
+     */
+    public void add(int item, double priority) {
+        if (contains(item)) {
+            throw new IllegalArgumentException("Already contains " + item);
+        }
+        size += 1;
+        heap[size] = item;
+        itemToIndex[item] = size;
+        priorities[item] = priority;
+        swim(size);
+    }
+
+    /**
+     * Returns true if the given item is in this priority queue.
+     *
+     * @param item element to be checked for containment.
+     * @return true if the given item is in this priority queue.
+     */
+    public boolean contains(int item) {
+        return itemToIndex[item] != 0;
+    }
+
+    /**
+     * Returns the item with the minimum priority value.
+     *
+     * @return the item with the minimum priority value.
+     * @throws NoSuchElementException if this priority queue is empty.
+     */
+    public int peekMin() {
+        if (isEmpty()) {
+            throw new NoSuchElementException("PQ is empty");
+        }
+        return heap[1];
+    }
+
+    /**
+     * Returns the minimum priority value.
+     *
+     * @return the minimum priority value.
+     * @throws NoSuchElementException if this priority queue is empty.
+     */
+    public double peekMinPriority() {
+        return priorities[peekMin()];
+    }
+
+    /**
+     * Returns and removes the item with the minimum priority value.
+     *
+     * @return the item with the minimum priority value.
+     * @throws NoSuchElementException if this priority queue is empty.
+     */
+    public int removeMin() {
+        int min = peekMin();
+        swap(1, size);
+        size -= 1;
+        itemToIndex[min] = 0;
+        sink(1);
+        return min;
+    }
+
+    /**
+     * Updates the given items' associated priority value.
+     *
+     * @param item     the element whose associated priority value should be modified.
+     * @param priority the updated priority value.
+     * @throws NoSuchElementException if the item is not present.
+     */
+    public void changePriority(int item, double priority) {
+        if (!contains(item)) {
+            throw new NoSuchElementException("PQ does not contain " + item);
+        }
+        double oldPriority = priorities[item];
+        priorities[item] = priority;
+        if (priority < oldPriority) {
+            swim(itemToIndex[item]);
+        } else {
+            sink(itemToIndex[item]);
+        }
+    }
+
+    /**
+     * Removes all items from this priority queue in time proportional to its size.
+     */
+    public void clear() {
+        for (int i = 1; i <= size; i += 1) {
+            itemToIndex[heap[i]] = 0;
+        }
+        size = 0;
+    }
+
+    /**
+     * Returns the number of items in this priority queue.
+     *
+     * @return the number of elements in this priority queue.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns true if this priority queue contains no items.
+     *
+     * @return true if this priority queue contains no items.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(Arrays.copyOfRange(heap, 1, size + 1));
+    }
+
+    /** Returns true if and only if the node at index1 has a lower priority than the node at index2. */
+    private boolean less(int index1, int index2) {
+        return priorities[heap[index1]] < priorities[heap[index2]];
+    }
+
+    /** Swap the nodes at the two indices. */
+    private void swap(int index1, int index2) {
+        int item1 = heap[index1];
+        int item2 = heap[index2];
+        heap[index1] = item2;
+        heap[index2] = item1;
+        itemToIndex[item1] = index2;
+        itemToIndex[item2] = index1;
+    }
+
+    /** Bubbles up the node currently at the given index. */
+    private void swim(int index) {
+        while (index > 1 && less(index, index / 2)) {
+            swap(index, index / 2);
+            index = index / 2;
+        }
+    }
+
+    /** Bubbles down the node currently at the given index. */
+    private void sink(int index) {
+        while (2 * index <= size) {
+            int child = 2 * index;
+            if (child < size && less(child + 1, child)) {
+                child += 1;
+            }
+            if (!less(child, index)) {
+                return;
+            }
+            swap(index, child);
+            index = child;
+        }
+    }
+}